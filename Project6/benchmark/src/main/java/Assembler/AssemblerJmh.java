@@ -0,0 +1,91 @@
+package Assembler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compilation: mvn package, in the Project6/benchmark directory
+ * Execution: java -jar target/benchmarks.jar [JMH options, e.g. -p program=100000 -prof gc]
+ *
+ * Runs the benchmarks of AssemblerBenchmark.java under JMH, on a synthetic program of the number of instructions given,
+ * or on a .asm file (paths are relative to the Project6/benchmark directory). Each benchmark returns the result of the
+ * task, which JMH consumes, so that no work is optimized away. The time given is per run over the whole program; -prof
+ * gc adds the bytes allocated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class AssemblerJmh {
+
+    @Param({"10000", "100000", "1000000", "../../Project4/Mult.asm", "../../Project4/Fill.asm"})
+    public String program;
+
+    private AssemblerBenchmark benchmark;
+    private Assembler assembler;
+
+    @Setup
+    public void setUp() throws IOException {
+        String text;
+        if (program.endsWith(".asm")) {
+            text = new String(Files.readAllBytes(Paths.get(program)), StandardCharsets.ISO_8859_1);
+        } else {
+            text = AssemblerBenchmark.synthetic(Integer.parseInt(program));
+        }
+        benchmark = new AssemblerBenchmark(program, text);
+        assembler = new Assembler();
+        assembler.setOversizedAllowed(true);
+    }
+
+    @Benchmark
+    public long parseWithScanner() {
+        return benchmark.parseWithScanner(assembler);
+    }
+
+    @Benchmark
+    public long parseWithBuffer() {
+        return benchmark.parseWithBuffer(assembler);
+    }
+
+    @Benchmark
+    public long encodeToStrings() {
+        return benchmark.encodeToStrings(assembler);
+    }
+
+    @Benchmark
+    public long encodeToInts() {
+        return benchmark.encodeToInts(assembler);
+    }
+
+    @Benchmark
+    public long resolveWithTwoProbes() {
+        return benchmark.resolveWithTwoProbes(assembler);
+    }
+
+    @Benchmark
+    public long resolveWithOneProbe() {
+        return benchmark.resolveWithOneProbe(assembler);
+    }
+
+    @Benchmark
+    public long assemble() throws IOException {
+        return benchmark.assemble(assembler);
+    }
+}
@@ -1,116 +1,490 @@
 package Assembler;
 
 import java.io.*;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Compilation: javac Assembler.Assembler.java
- * Execution: java Assembler.Assembler filename.asm
- * Dependencies: SymbolTable.java, Code.java, Parser.java
+ * Execution: java Assembler.Assembler [options] filename.asm
+ * Dependencies: SymbolTable.java, Code.java, Parser.java, BufferParser.java, Fragment.java, Optimizer.java,
+ *               HackWriter.java, SourceMap.java,
+ *               BatchAssembler.java, AssemblyCache.java, AssemblerStats.java, Program.java, AssemblyException.java
  *
  * Takes a Hack assembly program via a file of .asm format, and produces a text file of .hack format, containing the
- * translated Hack machine code.
+ * translated Hack machine code. With --binary, the machine code is written instead to a .hackbin file of packed 16-bit
+ * words, see HackWriter.java. With --parallel, large files are split into chunks that are encoded on several threads.
+ * With --peephole, redundant sequences of commands are removed, and with --dead-code, commands that can't be reached
+ * are removed; with --thread-jumps, jumps to unconditional jumps go straight to their final target, see Optimizer.java.
+ * With --map, a .hackmap file linking each address back to its source line and listing the labels is written next to
+ * the machine code, see SourceMap.java. With --cache, files that were already assembled with the same options are
+ * copied from a cache instead, see AssemblyCache.java. With --stats, the time taken by each pass and the numbers of
+ * commands, symbols and bytes are printed, see AssemblerStats.java.
+ *
+ * Several files, directories of .asm files or patterns such as somepath/*.asm can be given at once: they are then
+ * assembled on a pool of --jobs=N threads, and the time taken by each file is reported, see BatchAssembler.java.
+ *
+ * An Assembler can also be used from other programs, to assemble any number of sources without starting a new JVM for
+ * each: assemble() streams machine code from a Reader, InputStream or ByteBuffer to an OutputStream, and the symbol
+ * table and buffers are reused from one call to the next. assembleProgram() returns the machine code in memory instead,
+ * with the labels, for tools that would otherwise parse it back, see Program.java. An Assembler must only be used by one
+ * thread at a time.
  *
  */
 
 public class Assembler {
 
+    // version of the machine code written, to be changed whenever the output for a given source changes
+    public static final String VERSION = "2";
+
+    // number of words of ROM, i.e. of instructions a program can hold
+    public static final int ROM_SIZE = 32768;
+
+    // number of variables that can be allocated, from address 16 up to the largest address an A-command can load
+    private static final int MAX_VARIABLES = 32768 - 16;
+
+    private static final int MIN_CHUNK_SIZE = 1 << 18; // smallest chunk of the file worth encoding on its own thread
+
+    private boolean binary; // write packed 16-bit words instead of text
+    private boolean parallel; // encode chunks of the source on several threads
+    private boolean peephole; // remove redundant sequences of commands before resolving symbols
+    private boolean deadCode; // remove the commands that can't be reached before resolving symbols
+    private boolean jumpThreading; // send jumps to jumps straight to their final target before resolving symbols
+    private boolean sourceMapped; // build a source map of each program assembled
+    private boolean oversizedAllowed; // assemble programs with more instructions than ROM holds, e.g. for benchmarks
+    private SourceMap sourceMap; // source map of the last program assembled, if sourceMapped
+    private AssemblyCache cache; // where files already assembled are looked up, null if there's none
+    private AssemblerStats stats; // stats of the last program assembled, null if they aren't collected
+
+    // reused for every source assembled
+    private final BufferParser parser = new BufferParser();
+    private final Fragment fragment = new Fragment();
+    private final SymbolTable symTable = new SymbolTable();
+    private final HackWriter writer = new HackWriter();
+
     public static void main(String[] args) {
 
-        String filename = null;
+        ArrayList<String> inputs = new ArrayList<>(); // files, directories or patterns to assemble
+        int jobs = Runtime.getRuntime().availableProcessors(); // worker threads when assembling several files
+        Assembler assembler = new Assembler();
 
         // parse command-line arguments
-        if (args.length != 1 || !isValidFilename(args[0])) {
-            System.err.println("usage: java Assembler.Assembler filename.asm");
-            System.exit(1);
+        for (String arg : args) {
+            if (arg.startsWith("--jobs=")) {
+                try {
+                    jobs = Integer.parseInt(arg.substring("--jobs=".length()));
+                } catch (NumberFormatException e) {
+                    printCommandLineErrorAndExit();
+                }
+                if (jobs < 1) printCommandLineErrorAndExit();
+            } else if (arg.startsWith("--")) {
+                if (!assembler.setOption(arg)) printCommandLineErrorAndExit();
+            } else {
+                inputs.add(arg);
+            }
+        }
+        if (inputs.isEmpty()) printCommandLineErrorAndExit();
+
+        // a single file is assembled on this thread, anything else is assembled in a batch
+        if (inputs.size() == 1 && isValidFilename(inputs.get(0)) && new File(inputs.get(0)).isFile()) {
+            try {
+                assembler.assembleFile(inputs.get(0));
+                if (assembler.getStats() != null) System.out.println(assembler.getStats());
+            } catch (IOException | AssemblyException e) {
+                System.out.println(e.getMessage());
+                System.exit(1);
+            }
         } else {
-            filename = args[0];
+            List<String> filenames = null;
+            try {
+                filenames = BatchAssembler.expand(inputs);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                printCommandLineErrorAndExit();
+            }
+
+            int failures = new BatchAssembler(assembler, jobs).assembleAll(filenames);
+            if (failures > 0) System.exit(1);
         }
 
-        // Instantiate parser
-        Parser parser = null;
-        parser = getParser(filename, parser);
+    }
+
+    // returns a new Assembler with the same options as this one
+    Assembler copy() {
+        Assembler copy = new Assembler();
+        copy.binary = binary;
+        copy.parallel = parallel;
+        copy.peephole = peephole;
+        copy.deadCode = deadCode;
+        copy.jumpThreading = jumpThreading;
+        copy.sourceMapped = sourceMapped;
+        copy.oversizedAllowed = oversizedAllowed;
+        copy.cache = cache;
+        copy.stats = stats == null ? null : new AssemblerStats();
+        return copy;
+    }
 
-        // Create a symbol table resolving symbols to memory addresses
-        SymbolTable symTable = new SymbolTable();
+    // Turns on the option given as a command-line argument, e.g. --binary, and returns true, or returns false if the
+    // argument isn't one of the options of the assembler.
+    public boolean setOption(String arg) {
+        if (arg.equals("--binary")) {
+            setBinary(true);
+        } else if (arg.equals("--parallel")) {
+            setParallel(true);
+        } else if (arg.equals("--peephole")) {
+            setPeephole(true);
+        } else if (arg.equals("--dead-code")) {
+            setDeadCode(true);
+        } else if (arg.equals("--thread-jumps")) {
+            setJumpThreading(true);
+        } else if (arg.equals("--map")) {
+            setSourceMapped(true);
+        } else if (arg.equals("--stats")) {
+            setStats(true);
+        } else if (arg.equals("--cache")) {
+            setCache(new AssemblyCache(AssemblyCache.defaultDirectory()));
+        } else if (arg.startsWith("--cache=")) {
+            setCache(new AssemblyCache(Paths.get(arg.substring("--cache=".length()))));
+        } else {
+            return false;
+        }
+        return true;
+    }
 
-        // First pass through file: build the symbol table
-        int currRomAddress = -1; // address into which the current command will be loaded
+    // turns off all the options, keeping the symbol table and buffers
+    public void clearOptions() {
+        binary = false;
+        parallel = false;
+        peephole = false;
+        deadCode = false;
+        jumpThreading = false;
+        sourceMapped = false;
+        oversizedAllowed = false;
+        sourceMap = null;
+        cache = null;
+        stats = null;
+    }
 
-        while (parser.hasMoreCommands()) {
-            parser.advance(); // go to the next line
+    // sets whether machine code is written as packed 16-bit words (see HackWriter.java) instead of text
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
 
-            parser.stripSpacesAndComments(); // strip out all white spaces, tabs and comments
-            if (parser.commandLength() == 0) continue; // don't process unless there's a command
+    // sets whether sources held in a ByteBuffer are split into chunks encoded on several threads
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
 
-            Parser.Command commandType = parser.commandType();
+    // sets whether redundant sequences of commands are removed from the program, see Optimizer.java
+    public void setPeephole(boolean peephole) {
+        this.peephole = peephole;
+    }
 
-            if (commandType == Parser.Command.L_COMMAND) {
-                symTable.addEntry(parser.symbol(), currRomAddress + 1);
-            } else if (commandType == Parser.Command.A_COMMAND || commandType == Parser.Command.C_COMMAND){
-                currRomAddress++;
+    // sets whether the commands that can't be reached from address 0 are removed from the program, see Optimizer.java
+    public void setDeadCode(boolean deadCode) {
+        this.deadCode = deadCode;
+    }
+
+    // sets whether jumps to unconditional jumps go straight to their final target, see Optimizer.java
+    public void setJumpThreading(boolean jumpThreading) {
+        this.jumpThreading = jumpThreading;
+    }
+
+    // sets whether a source map is built for each program assembled, see SourceMap.java
+    public void setSourceMapped(boolean sourceMapped) {
+        this.sourceMapped = sourceMapped;
+    }
+
+    // Sets whether programs with more instructions than the 32768 words of ROM are assembled anyway, instead of being
+    // reported as a problem, for benchmarks and tools which don't load them into the Hack computer. The labels past the
+    // end of ROM still can't be loaded into A.
+    public void setOversizedAllowed(boolean oversizedAllowed) {
+        this.oversizedAllowed = oversizedAllowed;
+    }
+
+    // sets the cache of files already assembled used by assembleFile(), null for none, see AssemblyCache.java
+    public void setCache(AssemblyCache cache) {
+        this.cache = cache;
+    }
+
+    // sets whether stats are collected for each program assembled, see AssemblerStats.java
+    public void setStats(boolean collected) {
+        stats = collected ? new AssemblerStats() : null;
+    }
+
+    // returns the stats of the last program assembled, or null if they aren't collected
+    // they are updated in place by the next program assembled, see AssemblerStats.copy()
+    public AssemblerStats getStats() {
+        return stats;
+    }
+
+    // returns the source map of the last program assembled, or null if source maps aren't built
+    public SourceMap getSourceMap() {
+        return sourceMap;
+    }
+
+    // assembles a .asm file into a .hack file (or .hackbin file) in the same directory, and returns the latter's name
+    // the source map, if built, is written to a .hackmap file next to it
+    public String assembleFile(String filename) throws IOException {
+        String baseName = filename.substring(0, filename.lastIndexOf(".asm"));
+        String outFile = baseName + (binary ? ".hackbin" : ".hack");
+        String mapFile = sourceMapped ? baseName + ".hackmap" : null;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filename))) {
+            if (channel.size() > Integer.MAX_VALUE) { // too big to be mapped in one go, stream it instead
+                try (OutputStream sink = new FileOutputStream(outFile)) {
+                    parser.reset(channel);
+                    link(encode(), sink);
+                } catch (AssemblyException e) {
+                    Files.deleteIfExists(Paths.get(outFile)); // don't leave an empty file behind
+                    throw e;
+                }
+                writeSourceMap(mapFile);
+                return outFile;
             }
 
+            // map the file and parse it in place, unless the cache already holds its machine code
+            ByteBuffer source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            String key = cache == null ? null : cache.key(source, options());
+            if (key != null && cache.fetch(key, outFile, mapFile)) {
+                sourceMap = readSourceMap(mapFile);
+                if (stats != null) {
+                    stats.clear();
+                    stats.cached = true;
+                    stats.bytesIn = channel.size();
+                    stats.bytesOut = new File(outFile).length();
+                }
+                return outFile;
+            }
+
+            try (OutputStream sink = new FileOutputStream(outFile)) {
+                assemble(source, sink);
+            } catch (AssemblyException e) {
+                Files.deleteIfExists(Paths.get(outFile)); // don't leave an empty file behind
+                throw e;
+            }
+            writeSourceMap(mapFile);
+            if (key != null) cache.store(key, outFile, mapFile);
+        }
+
+        return outFile;
+    }
+
+    // writes the source map of the last program assembled, if built
+    private void writeSourceMap(String mapFile) throws IOException {
+        if (mapFile == null) return;
+        try (OutputStream mapSink = new FileOutputStream(mapFile)) {
+            sourceMap.write(mapSink);
+        }
+    }
+
+    // reads the source map of a program fetched from the cache, if built
+    private static SourceMap readSourceMap(String mapFile) throws IOException {
+        if (mapFile == null) return null;
+        try (InputStream mapSource = new FileInputStream(mapFile)) {
+            return SourceMap.read(mapSource);
         }
+    }
+
+    // describes the options changing the files written for a source, to tell cache entries apart
+    private String options() {
+        return "binary=" + binary + " peephole=" + peephole + " deadCode=" + deadCode + " threadJumps=" + jumpThreading + " map=" + sourceMapped
+                + (oversizedAllowed ? " oversized" : "") + " newline=" + System.lineSeparator().replace("\r", "CR").replace("\n", "LF");
+    }
+
+    // The assemble methods read a whole Hack assembly program from the source, and write its machine code to the sink.
+    // Neither the source nor the sink is closed.
 
-        parser.close();
+    public void assemble(Reader source, OutputStream sink) throws IOException {
+        parser.reset(source);
+        link(encode(), sink);
+    }
 
-        // Restart the parser
-        parser = getParser(filename, parser);
+    public void assemble(InputStream source, OutputStream sink) throws IOException {
+        parser.reset(source);
+        link(encode(), sink);
+    }
 
-        // Create output .hack file
-        String outFile = filename.substring(0, filename.indexOf(".asm")) + ".hack";
-        PrintWriter writer = null;
-        try {
-            writer = new PrintWriter(outFile);
-        } catch (IOException e) {
-            System.out.println(e.getMessage());
+    // the source is read from its position to its limit, as ASCII
+    public void assemble(ByteBuffer source, OutputStream sink) throws IOException {
+        if (parallel) {
+            long start = System.nanoTime();
+            List<Fragment> fragments = encodeInParallel(source);
+            parsed(start, source.remaining());
+            link(fragments, sink);
+        } else {
+            parser.reset(source);
+            link(encode(), sink);
         }
+    }
 
-        // Second pass through file: read assembly and write binary codes to file
-        while (parser.hasMoreCommands()) {
-            parser.advance(); // go to the next line
+    // encodes the whole input of the parser
+    private List<Fragment> encode() {
+        long start = System.nanoTime();
+        fragment.encode(parser);
+        parsed(start, parser.bytesRead());
+        return Collections.singletonList(fragment);
+    }
 
-            parser.stripSpacesAndComments(); // strip out all white spaces, tabs and comments
-            if (parser.commandLength() == 0) continue; // don't process unless there's a command
+    // starts the stats of a new program, if collected, with the time taken to parse it since start
+    private void parsed(long start, long bytesIn) {
+        if (stats == null) return;
+        stats.clear();
+        stats.parseNanos = System.nanoTime() - start;
+        stats.bytesIn = bytesIn;
+    }
 
-            Parser.Command commandType = parser.commandType();
+    // The assembleProgram methods read a whole Hack assembly program from the source, and return its machine code and
+    // labels. The source isn't closed.
 
-            // write binary code according to the type of command
-            switch (commandType) {
-                case C_COMMAND:
-                    String comp = Code.comp(parser.comp());
-                    String dest = Code.dest(parser.dest());
-                    String jump = Code.jump(parser.jump());
-                    writer.print("111" + comp + dest + jump);
-                    break;
-                case L_COMMAND:
-                    continue; // don't write anything to output for L commands
-                case A_COMMAND:
-                    String binary = Code.binary(getInt(parser.symbol(), symTable));
-                    writer.print("0" + binary);
-                    break;
-            }
+    public Program assembleProgram(Reader source) {
+        parser.reset(source);
+        return Program.of(resolve(encode()), symTable);
+    }
+
+    public Program assembleProgram(InputStream source) {
+        parser.reset(source);
+        return Program.of(resolve(encode()), symTable);
+    }
 
-            if (parser.hasMoreCommands()) writer.println(""); // write the binary code for next command on new line
+    // the source is read from its position to its limit, as ASCII
+    public Program assembleProgram(ByteBuffer source) {
+        if (parallel) {
+            long start = System.nanoTime();
+            List<Fragment> fragments = encodeInParallel(source);
+            parsed(start, source.remaining());
+            return Program.of(resolve(fragments), symTable);
         }
+        parser.reset(source);
+        return Program.of(resolve(encode()), symTable);
+    }
+
+    // resolves the symbols of the encoded fragments and writes the resulting machine code to the sink
+    private void link(List<Fragment> fragments, OutputStream sink) throws IOException {
+        Fragment program = resolve(fragments);
 
-        // close resources
-        if (writer != null) {
-            writer.close();
+        long start = System.nanoTime();
+        long written;
+        if (binary) {
+            written = writer.writeBinary(program.codes, program.count, Channels.newChannel(sink));
+        } else {
+            written = writer.writeText(program.codes, program.count, program.trailingNewline, sink);
         }
 
-        parser.close();
+        if (stats != null) {
+            stats.writeNanos += System.nanoTime() - start;
+            stats.bytesOut = written;
+        }
+    }
 
+    // merges the encoded fragments into the whole program, optimizes it and resolves its symbols into the symbol table
+    private Fragment resolve(List<Fragment> fragments) {
+        long start = System.nanoTime();
+        Fragment program = Fragment.merge(fragments);
+        if (stats != null) {
+            stats.parseNanos += System.nanoTime() - start;
+            countCommands(program);
+        }
+
+        start = System.nanoTime();
+        if (jumpThreading) Optimizer.threadJumps(program);
+        if (deadCode) Optimizer.eliminateDeadCode(program);
+        if (peephole) Optimizer.peephole(program);
+        long optimized = System.nanoTime();
+
+        symTable.reset();
+        program.resolve(symTable);
+        check(program);
+        long resolved = System.nanoTime();
+
+        sourceMap = sourceMapped ? SourceMap.of(program, symTable) : null;
+
+        if (stats != null) {
+            stats.optimizeNanos = optimized - start;
+            stats.resolveNanos = resolved - optimized;
+            stats.writeNanos = System.nanoTime() - resolved;
+            stats.instructions = program.count;
+            stats.symbols = symTable.size();
+            stats.variables = symTable.variableCount();
+        }
+        return program;
+    }
+
+    // Throws an AssemblyException listing every problem found in a program whose symbols have been resolved: constants
+    // that don't fit in an A-command, more instructions than ROM holds (unless allowed), or more variables than can be
+    // addressed.
+    private void check(Fragment program) {
+        int variables = symTable.variableCount();
+        boolean oversized = program.count > ROM_SIZE && !oversizedAllowed;
+        if (program.problems.isEmpty() && !oversized && variables <= MAX_VARIABLES) return;
+
+        ArrayList<String> problems = new ArrayList<>();
+        for (Fragment.Problem problem : program.problems) {
+            problems.add("line " + problem.line + ": " + problem.message);
+        }
+        if (oversized) {
+            problems.add("the program has " + program.count + " instructions, more than the " + ROM_SIZE
+                    + " words of ROM");
+        }
+        if (variables > MAX_VARIABLES) {
+            problems.add("the program has " + variables + " variables, more than the " + MAX_VARIABLES
+                    + " an A-command can address");
+        }
+        throw new AssemblyException(problems);
     }
 
-    private static Parser getParser(String filename, Parser parser) {
-        try {
-            parser = new Parser(new Scanner(new FileReader(new File(filename))));
-        } catch (IOException e) {
-            System.out.println(e.getMessage());
+    // counts the commands of each type in a program that's just been encoded
+    private void countCommands(Fragment program) {
+        int aCommands = 0;
+        for (int i = 0; i < program.count; i++) {
+            if ((program.codes[i] & 0x8000) == 0) aCommands++;
         }
-        return parser;
+        stats.aCommands = aCommands;
+        stats.cCommands = program.count - aCommands;
+        stats.lCommands = program.labels.size();
+    }
+
+    // Splits the source into chunks of whole lines, and encodes the chunks on the fork-join pool. Each chunk can be
+    // encoded on its own since symbols are only resolved when the fragments are linked.
+    private static List<Fragment> encodeInParallel(ByteBuffer source) {
+        source = source.slice();
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, source.limit() / (4 * ForkJoinPool.getCommonPoolParallelism()));
+
+        ArrayList<ForkJoinTask<Fragment>> tasks = new ArrayList<>();
+        int start = 0;
+        while (start < source.limit()) {
+            int end = Math.min(start + chunkSize, source.limit());
+            while (end < source.limit() && source.get(end - 1) != '\n') end++; // don't split a line
+
+            ByteBuffer chunk = source.duplicate();
+            chunk.position(start);
+            chunk.limit(end);
+            BufferParser parser = new BufferParser(chunk.slice());
+            tasks.add(ForkJoinPool.commonPool().submit(() -> new Fragment().encode(parser)));
+            start = end;
+        }
+
+        ArrayList<Fragment> fragments = new ArrayList<>();
+        for (ForkJoinTask<Fragment> task : tasks) {
+            fragments.add(task.join()); // in source order
+        }
+        return fragments;
+    }
+
+    private static void printCommandLineErrorAndExit() {
+        System.err.println("usage: java Assembler.Assembler [options] filename.asm");
+        System.err.println("OR");
+        System.err.println("java Assembler.Assembler [options] [--jobs=N] <filename.asm | directory | pattern>...");
+        System.err.println("options: [--binary] [--parallel] [--peephole] [--dead-code] [--thread-jumps] [--map] [--stats] [--cache[=directory]]");
+        System.exit(1);
     }
 
     // checks if filename is acceptable input, i.e. .asm file
@@ -118,19 +492,4 @@ public class Assembler {
         return filename.endsWith(".asm");
     }
 
-    // if the input is a string representing an int, then returns the int value
-    // if the input is a string representing a symbol, then returns the symbol's memory address
-    private static int getInt(String input, SymbolTable symbolTable) {
-        try {
-            return Integer.parseInt(input); // just return the int value if string is a number
-        } catch (NumberFormatException e) { // input is a symbol, look it up in table
-            if (symbolTable.contains(input)) {
-                return symbolTable.getAddress(input);
-            } else { // input is a variable declared for the first time, add it to the table
-                int address = symbolTable.getNextAddAndIncrement();
-                symbolTable.addEntry(input, address);
-                return address;
-            }
-        }
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,304 @@
+package Assembler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Scanner;
+
+/**
+ * Compilation: javac Assembler/*.java
+ * Execution: java Assembler.AssemblerBenchmark [--iterations=N] [filename.asm]...
+ *
+ * Measures each stage of the assembler, and the whole of it, on synthetic programs of 10K, 100K and 1M instructions
+ * and on the .asm files given (by default, Mult.asm and Fill.asm from Project4, when run from the src/ directory):
+ *
+ *   Parser          Parser.advance(), stripSpacesAndComments() and the String accessors, reading through a Scanner
+ *   BufferParser    BufferParser.advance() and the offset accessors, reading from a buffer
+ *   Code.String     Code.comp(), dest(), jump() and binary(), and the concatenation of the fields
+ *   Code.int        Code.compBits(), destBits(), jumpBits() and aInstruction()
+ *   SymbolTable     contains(), getAddress() and addEntry() for every symbol referred to, as the two-pass assembler did
+ *   lookupOrAllocate  SymbolTable.lookupOrAllocate() from the chars of every symbol referred to
+ *   Assembler       Assembler.assemble() from a buffer to a stream discarding its output
+ *
+ * Every benchmark is run a few times to warm up the JIT compiler, then timed over --iterations runs (10 by default),
+ * small programs being run repeatedly in each iteration so that it covers at least 100K instructions.
+ * Results are given per instruction of the program: the time taken, and the bytes allocated on the heap, which tells how
+ * much work is left to the garbage collector. Allocations are only reported on JVMs that can count them per thread.
+ * The results of every run are summed into a checksum printed at the end, so that no work is optimized away.
+ *
+ * The same benchmarks are written for JMH in Project6/benchmark, which forks JVMs and reports errors (see its pom.xml).
+ */
+public class AssemblerBenchmark {
+
+    private static final int[] SYNTHETIC_SIZES = {10_000, 100_000, 1_000_000};
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MIN_RUN_SIZE = 100_000; // instructions per iteration, small programs being run repeatedly
+
+    private final String name; // name of the program benchmarked
+    private final String text; // the program
+    private final byte[] bytes; // the program, as ASCII
+    private final int instructions; // number of A- and C-commands in the program
+
+    // the fields of the program's commands, picked out beforehand for the benchmarks of Code and SymbolTable
+    private final ArrayList<String[]> cFields = new ArrayList<>(); // dest, comp and jump of each C-command
+    private final ArrayList<Integer> numbers = new ArrayList<>(); // value of each @number
+    private final ArrayList<String> symbols = new ArrayList<>(); // symbol of each @symbol
+    // the same fields as chars, made once so that neither making nor finding them is counted in the benchmarks
+    private final ArrayList<char[][]> cChars = new ArrayList<>(); // dest, comp and jump of each C-command
+    private final ArrayList<char[]> symbolChars = new ArrayList<>(); // symbol of each @symbol
+
+    // Sum of the results of every task run, printed at the end: the results being used, the JIT compiler can't drop
+    // the work producing them.
+    private static long checksum;
+
+    public static void main(String[] args) throws IOException {
+        int iterations = 10;
+        ArrayList<String> filenames = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--iterations=")) {
+                iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+            } else {
+                filenames.add(arg);
+            }
+        }
+        if (filenames.isEmpty()) {
+            filenames.add("../../Project4/Mult.asm");
+            filenames.add("../../Project4/Fill.asm");
+        }
+
+        ArrayList<AssemblerBenchmark> programs = new ArrayList<>();
+        for (int size : SYNTHETIC_SIZES) {
+            programs.add(new AssemblerBenchmark("synthetic-" + size / 1000 + "K", synthetic(size)));
+        }
+        for (String filename : filenames) {
+            String text = new String(Files.readAllBytes(Paths.get(filename)), StandardCharsets.ISO_8859_1);
+            programs.add(new AssemblerBenchmark(Paths.get(filename).getFileName().toString(), text));
+        }
+
+        System.out.printf("%-18s %-16s %12s %12s %14s%n", "benchmark", "program", "ns/instr", "bytes/instr",
+                "instr/s");
+        for (AssemblerBenchmark program : programs) {
+            program.runAll(iterations);
+        }
+        System.out.println("checksum " + checksum);
+    }
+
+    AssemblerBenchmark(String name, String text) {
+        this.name = name;
+        this.text = text;
+        this.bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+
+        Parser parser = new Parser(new Scanner(new StringReader(text)));
+        int count = 0;
+        while (parser.hasMoreCommands()) {
+            parser.advance();
+            parser.stripSpacesAndComments();
+            if (parser.commandLength() == 0) continue;
+
+            switch (parser.commandType()) {
+                case C_COMMAND:
+                    cFields.add(new String[]{parser.dest(), parser.comp(), parser.jump()});
+                    cChars.add(new char[][]{parser.dest().toCharArray(), parser.comp().toCharArray(),
+                            parser.jump().toCharArray()});
+                    count++;
+                    break;
+                case A_COMMAND:
+                    if (BufferParser.isNumber(parser.symbol().toCharArray(), 0, parser.symbol().length())) {
+                        numbers.add(Integer.parseInt(parser.symbol()));
+                    } else {
+                        symbols.add(parser.symbol());
+                        symbolChars.add(parser.symbol().toCharArray());
+                    }
+                    count++;
+                    break;
+            }
+        }
+        this.instructions = count;
+    }
+
+    private void runAll(int iterations) throws IOException {
+        run("Parser", iterations, this::parseWithScanner);
+        run("BufferParser", iterations, this::parseWithBuffer);
+        run("Code.String", iterations, this::encodeToStrings);
+        run("Code.int", iterations, this::encodeToInts);
+        run("SymbolTable", iterations, this::resolveWithTwoProbes);
+        run("lookupOrAllocate", iterations, this::resolveWithOneProbe);
+        run("Assembler", iterations, this::assemble);
+    }
+
+    // runs a benchmark, then prints its time and allocations per instruction
+    private void run(String benchmark, int iterations, Task task) throws IOException {
+        Assembler assembler = new Assembler();
+        assembler.setOversizedAllowed(true); // the synthetic programs of 100K and 1M instructions don't fit in ROM
+        int runs = Math.max(1, MIN_RUN_SIZE / Math.max(1, instructions)); // runs per iteration
+        for (int i = 0; i < WARMUP_ITERATIONS * runs; i++) {
+            checksum += task.run(assembler);
+        }
+
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations * runs; i++) {
+            checksum += task.run(assembler);
+        }
+        long time = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        double perInstruction = (double) instructions * iterations * runs;
+        System.out.printf("%-18s %-16s %12.1f %12s %14.0f%n", benchmark, name, time / perInstruction,
+                allocatedBefore < 0 ? "n/a" : String.format("%.1f", allocated / perInstruction),
+                perInstruction / (time / 1e9));
+    }
+
+    long parseWithScanner(Assembler assembler) {
+        Parser parser = new Parser(new Scanner(new StringReader(text)));
+        long sink = 0;
+        while (parser.hasMoreCommands()) {
+            parser.advance();
+            parser.stripSpacesAndComments();
+            if (parser.commandLength() == 0) continue;
+
+            if (parser.commandType() == Parser.Command.C_COMMAND) {
+                sink += parser.dest().length() + parser.comp().length() + parser.jump().length();
+            } else {
+                sink += parser.symbol().length();
+            }
+        }
+        return sink;
+    }
+
+    long parseWithBuffer(Assembler assembler) {
+        BufferParser parser = new BufferParser(ByteBuffer.wrap(bytes));
+        long sink = 0;
+        while (parser.hasMoreCommands()) {
+            parser.advance();
+            if (parser.commandLength() == 0) continue;
+
+            if (parser.commandType() == Parser.Command.C_COMMAND) {
+                sink += parser.destEnd() + parser.compEnd() + parser.jumpEnd();
+            } else if (parser.symbolIsNumber()) {
+                sink += parser.symbolValue();
+            } else {
+                sink += parser.symbolEnd();
+            }
+        }
+        return sink;
+    }
+
+    long encodeToStrings(Assembler assembler) {
+        long sink = 0;
+        for (String[] fields : cFields) {
+            sink += ("111" + Code.comp(fields[1]) + Code.dest(fields[0]) + Code.jump(fields[2])).length();
+        }
+        for (int number : numbers) {
+            sink += ("0" + Code.binary(number)).length();
+        }
+        return sink;
+    }
+
+    long encodeToInts(Assembler assembler) {
+        long sink = 0;
+        for (char[][] fields : cChars) {
+            sink += Code.cInstruction(Code.compBits(fields[1], 0, fields[1].length),
+                    Code.destBits(fields[0], 0, fields[0].length), Code.jumpBits(fields[2], 0, fields[2].length));
+        }
+        for (int number : numbers) {
+            sink += Code.aInstruction(number);
+        }
+        return sink;
+    }
+
+    long resolveWithTwoProbes(Assembler assembler) {
+        SymbolTable table = new SymbolTable();
+        long sink = 0;
+        for (String symbol : symbols) {
+            if (table.contains(symbol)) {
+                sink += table.getAddress(symbol);
+            } else {
+                int address = table.getNextAddAndIncrement();
+                table.addEntry(symbol, address);
+                sink += address;
+            }
+        }
+        return sink;
+    }
+
+    long resolveWithOneProbe(Assembler assembler) {
+        SymbolTable table = new SymbolTable();
+        long sink = 0;
+        for (char[] symbol : symbolChars) {
+            sink += table.lookupOrAllocate(symbol, 0, symbol.length);
+        }
+        return sink;
+    }
+
+    long assemble(Assembler assembler) throws IOException {
+        CountingStream out = new CountingStream();
+        assembler.assemble(ByteBuffer.wrap(bytes), out);
+        return out.count;
+    }
+
+    // Returns a program of the given number of instructions, looking like the code of the VM translator: stack
+    // operations on variables and constants, and jumps to labels. The labels are all defined at the start of the program,
+    // so that the addresses they refer to fit in an A-command however long the program is.
+    static String synthetic(int instructions) {
+        StringBuilder program = new StringBuilder();
+        int count = 0;
+        for (int block = 0; count < instructions; block++) {
+            if (block < 100) {
+                program.append("(LABEL").append(block).append(")\n");
+            }
+            program.append("// block ").append(block).append('\n')
+                    .append("@").append(block % 1000).append("\n")
+                    .append("D=A\n")
+                    .append("@SP\n")
+                    .append("A=M\n")
+                    .append("M=D  // push constant\n")
+                    .append("@SP\n")
+                    .append("M=M+1\n")
+                    .append("@var").append(block % 200).append("\n")
+                    .append("D=M\n")
+                    .append("@SP\n")
+                    .append("AM=M-1\n")
+                    .append("D=D-M\n")
+                    .append("@LABEL").append(block % 100).append("\n")
+                    .append("D;JGT\n");
+            count += 14;
+        }
+        return program.toString();
+    }
+
+    // returns the bytes allocated by this thread so far, or -1 if the JVM can't tell
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private interface Task {
+        long run(Assembler assembler) throws IOException;
+    }
+
+    // discards what's written to it, only counting the bytes
+    private static class CountingStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package Assembler;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Compilation: javac Assembler/*.java
+ * Execution: java Assembler.AssemblerClient [--socket=path] [options] <filename.asm | directory | pattern>...
+ *
+ * Asks a running AssemblerServer to assemble files, taking the same options and files as Assembler.java, and prints the
+ * server's answer. --jobs=N is ignored by the server, whose own --jobs=N sets how many requests it handles at once, the
+ * files of each being assembled one after the other. Relative paths are made absolute first, as the server runs in
+ * another directory. Exits with status 1 if a file couldn't be assembled, and 2 if the server can't be reached.
+ */
+public class AssemblerClient {
+
+    public static void main(String[] args) {
+        Path socket = AssemblerServer.defaultSocket();
+        StringBuilder request = new StringBuilder();
+
+        for (String arg : args) {
+            if (arg.startsWith("--socket=")) {
+                socket = Paths.get(arg.substring("--socket=".length()));
+            } else if (arg.startsWith("--")) {
+                request.append(arg).append('\n');
+            } else {
+                request.append(Paths.get(arg).toAbsolutePath()).append('\n');
+            }
+        }
+        if (request.length() == 0) {
+            System.err.println("usage: java Assembler.AssemblerClient [--socket=path] [options] "
+                    + "<filename.asm | directory | pattern>...");
+            System.exit(1);
+        }
+        request.append('\n'); // end of the request
+
+        boolean failed = false;
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+
+            Writer out = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+            out.write(request.toString());
+            out.flush();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel),
+                    StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                System.out.println(line);
+                if (line.startsWith("error ")) failed = true;
+            }
+        } catch (IOException e) {
+            System.err.println("can't reach the assembler server on " + socket + ": " + e.getMessage());
+            System.err.println("start it with: java Assembler.AssemblerServer");
+            System.exit(2);
+        }
+
+        if (failed) System.exit(1);
+    }
+}
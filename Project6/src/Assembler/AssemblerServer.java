@@ -0,0 +1,165 @@
+package Assembler;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compilation: javac Assembler/*.java
+ * Execution: java Assembler.AssemblerServer [--socket=path] [--jobs=N]
+ *
+ * Keeps a JVM running with its assemblers warmed up, and assembles the files asked for over a Unix domain socket, so
+ * that assembling a file on every save of an editor doesn't pay for starting a JVM and compiling the assembler each
+ * time. AssemblerClient.java sends the requests, as can any program able to write to a Unix domain socket.
+ *
+ * A request is made of the arguments that would be given to Assembler.java, one per line, ended by an empty line:
+ * options such as --binary, and .asm files, directories or patterns, which should be absolute paths since the server
+ * doesn't run in the client's directory. The server answers with a line per file, "ok <file> <ms>" or
+ * "error <file>: <message>", followed by its stats if --stats was given, then closes the connection. A --jobs=N option
+ * is accepted but ignored: the files of a request are assembled one after the other, and the server's own --jobs=N
+ * sets how many requests are handled at once.
+ *
+ * Requests are handled concurrently on a pool of --jobs=N threads, one per processor by default. Each thread keeps its
+ * own Assembler, so requests never share a symbol table, and the options of a request don't carry over to the next.
+ */
+public class AssemblerServer {
+
+    private final Path socket; // where the server listens
+    private final ExecutorService pool; // handles the requests
+    private final ThreadLocal<Assembler> assemblers = ThreadLocal.withInitial(Assembler::new);
+
+    public AssemblerServer(Path socket, int jobs) {
+        this.socket = socket;
+        this.pool = Executors.newFixedThreadPool(jobs);
+    }
+
+    public static void main(String[] args) {
+        Path socket = defaultSocket();
+        int jobs = Runtime.getRuntime().availableProcessors();
+
+        for (String arg : args) {
+            if (arg.startsWith("--socket=")) {
+                socket = Paths.get(arg.substring("--socket=".length()));
+            } else if (arg.startsWith("--jobs=")) {
+                try {
+                    jobs = Integer.parseInt(arg.substring("--jobs=".length()));
+                } catch (NumberFormatException e) {
+                    printCommandLineErrorAndExit();
+                }
+                if (jobs < 1) printCommandLineErrorAndExit();
+            } else {
+                printCommandLineErrorAndExit();
+            }
+        }
+
+        try {
+            new AssemblerServer(socket, jobs).serve();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // returns the socket used when none is given: hack-assembler-<user>.sock in the temporary directory
+    public static Path defaultSocket() {
+        return Paths.get(System.getProperty("java.io.tmpdir"), "hack-assembler-" + System.getProperty("user.name")
+                + ".sock");
+    }
+
+    // accepts connections until the JVM is stopped, handing each request to the pool
+    public void serve() throws IOException {
+        Files.deleteIfExists(socket); // left behind by a server that was killed
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException e) {
+                    // nothing left to do about it
+                }
+            }));
+            System.out.println("listening on " + socket);
+
+            while (true) {
+                SocketChannel client = server.accept();
+                pool.submit(() -> handle(client));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // reads a request from the client, assembles the files asked for and writes back the outcome for each
+    private void handle(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel),
+                    StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                    Channels.newOutputStream(channel), StandardCharsets.UTF_8)));
+
+            ArrayList<String> args = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null && !line.isEmpty()) {
+                args.add(line);
+            }
+
+            assemble(args, out);
+            out.flush();
+        } catch (IOException e) {
+            // the client went away, there's no one left to tell
+        }
+    }
+
+    // assembles the files given by the arguments of a request, with the options it gives
+    private void assemble(List<String> args, PrintWriter out) {
+        Assembler assembler = assemblers.get();
+        assembler.clearOptions();
+
+        ArrayList<String> inputs = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                inputs.add(arg);
+            } else if (arg.startsWith("--jobs=")) {
+                continue; // the files of a request are assembled one after the other, on the thread handling it
+            } else if (!assembler.setOption(arg)) {
+                out.println("error " + arg + ": unknown option");
+                return;
+            }
+        }
+
+        List<String> filenames;
+        try {
+            filenames = BatchAssembler.expand(inputs);
+        } catch (IOException | IllegalArgumentException e) {
+            out.println("error " + String.join(" ", inputs) + ": " + e.getMessage());
+            return;
+        }
+
+        for (String filename : filenames) {
+            long start = System.nanoTime();
+            try {
+                assembler.assembleFile(filename);
+                out.printf("ok %s %.2f%n", filename, (System.nanoTime() - start) / 1e6);
+                if (assembler.getStats() != null) out.println(assembler.getStats().toString("    "));
+            } catch (IOException | RuntimeException e) {
+                out.println("error " + filename + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static void printCommandLineErrorAndExit() {
+        System.err.println("usage: java Assembler.AssemblerServer [--socket=path] [--jobs=N]");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,139 @@
+package Assembler;
+
+/**
+ * Where the time went while assembling a program, and what the program was made of. Filled in by an Assembler whose
+ * stats are turned on, for the last program it assembled. Used in Assembler.java and BatchAssembler.java.
+ *
+ * The source is read as it's parsed, and each command is encoded as soon as it's parsed, so reading, parsing and
+ * encoding are timed together as the parse time. Symbols are resolved once the whole program is encoded: this is what
+ * used to be the second pass, and is timed as the resolve time.
+ */
+public class AssemblerStats {
+
+    long parseNanos; // reading, parsing and encoding the source
+    long optimizeNanos; // the optional passes of Optimizer.java
+    long resolveNanos; // adding the labels to the symbol table and patching the A-commands referring to symbols
+    long writeNanos; // writing the machine code, and building the source map if any
+
+    int aCommands; // A-commands in the source
+    int cCommands; // C-commands in the source
+    int lCommands; // labels defined in the source
+    int instructions; // instructions written, fewer than the A- and C-commands if some were optimized away
+    int symbols; // symbols in the symbol table once resolved, including the predefined ones
+    int variables; // variables allocated in RAM
+
+    long bytesIn; // size of the source
+    long bytesOut; // size of the machine code written
+    boolean cached; // whether the machine code was copied from the cache, in which case nothing else was measured
+
+    // forgets about the last program, so that the stats can be filled in for another one
+    void clear() {
+        parseNanos = optimizeNanos = resolveNanos = writeNanos = 0;
+        aCommands = cCommands = lCommands = instructions = symbols = variables = 0;
+        bytesIn = bytesOut = 0;
+        cached = false;
+    }
+
+    // returns a copy of these stats, which won't change when the Assembler goes on to another program
+    public AssemblerStats copy() {
+        AssemblerStats copy = new AssemblerStats();
+        copy.parseNanos = parseNanos;
+        copy.optimizeNanos = optimizeNanos;
+        copy.resolveNanos = resolveNanos;
+        copy.writeNanos = writeNanos;
+        copy.aCommands = aCommands;
+        copy.cCommands = cCommands;
+        copy.lCommands = lCommands;
+        copy.instructions = instructions;
+        copy.symbols = symbols;
+        copy.variables = variables;
+        copy.bytesIn = bytesIn;
+        copy.bytesOut = bytesOut;
+        copy.cached = cached;
+        return copy;
+    }
+
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    public long getOptimizeNanos() {
+        return optimizeNanos;
+    }
+
+    public long getResolveNanos() {
+        return resolveNanos;
+    }
+
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    // returns the time taken by all the passes
+    public long getTotalNanos() {
+        return parseNanos + optimizeNanos + resolveNanos + writeNanos;
+    }
+
+    public int getACommands() {
+        return aCommands;
+    }
+
+    public int getCCommands() {
+        return cCommands;
+    }
+
+    public int getLCommands() {
+        return lCommands;
+    }
+
+    public int getInstructions() {
+        return instructions;
+    }
+
+    public int getSymbols() {
+        return symbols;
+    }
+
+    public int getVariables() {
+        return variables;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    public boolean isCached() {
+        return cached;
+    }
+
+    // returns the number of A- and C-commands assembled per second, 0 if nothing was timed
+    public double getThroughput() {
+        long total = getTotalNanos();
+        return total == 0 ? 0 : (aCommands + cCommands) / (total / 1e9);
+    }
+
+    // describes the stats over a few lines, each starting with the given prefix
+    public String toString(String prefix) {
+        if (cached) {
+            return String.format("%scopied from the cache, %d bytes in, %d bytes out", prefix, bytesIn, bytesOut);
+        }
+        return String.format("%stime: parse %.2f ms, optimize %.2f ms, resolve %.2f ms, write %.2f ms, total %.2f ms%n"
+                        + "%scommands: %d A, %d C, %d L, %d instructions written%n"
+                        + "%ssymbols: %d, variables: %d%n"
+                        + "%sbytes: %d in, %d out, %.0f commands/s",
+                prefix, parseNanos / 1e6, optimizeNanos / 1e6, resolveNanos / 1e6, writeNanos / 1e6,
+                getTotalNanos() / 1e6,
+                prefix, aCommands, cCommands, lCommands, instructions,
+                prefix, symbols, variables,
+                prefix, bytesIn, bytesOut, getThroughput());
+    }
+
+    @Override
+    public String toString() {
+        return toString("");
+    }
+}
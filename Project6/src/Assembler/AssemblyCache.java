@@ -0,0 +1,169 @@
+package Assembler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the machine code (and source map) of the files assembled in a directory, keyed by a hash of their source, so
+ * that a file which hasn't changed since it was last assembled is just copied from the cache. Used in Assembler.java.
+ *
+ * The key also covers the version of the assembler and the options changing its output, so entries written by another
+ * version or with other options are never used. Entries are evicted once they haven't been used for a while, and the
+ * least recently used ones whenever the cache grows too big. A cache can be shared by several threads and processes.
+ * Only the files written by the cache are ever evicted, as the directory may be any directory given on the command
+ * line: its entries, named after their key, and the temporary files left by a process which died while writing one.
+ */
+public class AssemblyCache {
+
+    public static final long DEFAULT_MAX_SIZE = 256L << 20; // bytes
+    public static final long DEFAULT_MAX_AGE = TimeUnit.DAYS.toMillis(30);
+
+    private static final Pattern ENTRY = Pattern.compile("[0-9a-f]{64}\\.(code|map)"); // name of an entry's files
+    private static final Pattern TEMP = Pattern.compile("entry\\d+\\.tmp"); // name of a file being copied in
+
+    private final Path dir; // where the entries are kept
+    private final long maxSize; // bytes the entries may take up at most
+    private final long maxAge; // milliseconds an entry is kept without being used
+
+    public AssemblyCache(Path dir) {
+        this(dir, DEFAULT_MAX_SIZE, DEFAULT_MAX_AGE);
+    }
+
+    public AssemblyCache(Path dir, long maxSize, long maxAge) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+    }
+
+    // returns the directory used when none is given: .cache/hack-assembler in the user's home directory
+    public static Path defaultDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".cache", "hack-assembler");
+    }
+
+    // returns the key of a source assembled with the given options, a hex SHA-256 digest
+    public String key(ByteBuffer source, String options) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every Java platform supports SHA-256
+        }
+
+        digest.update((Assembler.VERSION + "\n" + options + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(source.duplicate());
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    // Copies the entry for a key to the output files, mapFile being null if no source map is wanted. Returns false if
+    // there's no such entry.
+    public boolean fetch(String key, String outFile, String mapFile) throws IOException {
+        Path code = dir.resolve(key + ".code");
+        Path map = dir.resolve(key + ".map");
+        if (!Files.exists(code) || (mapFile != null && !Files.exists(map))) return false;
+
+        try {
+            Files.copy(code, Paths.get(outFile), StandardCopyOption.REPLACE_EXISTING);
+            touch(code);
+            if (mapFile != null) {
+                Files.copy(map, Paths.get(mapFile), StandardCopyOption.REPLACE_EXISTING);
+                touch(map);
+            }
+        } catch (NoSuchFileException e) { // evicted in the meantime
+            return false;
+        }
+        return true;
+    }
+
+    // Stores the output files as the entry for a key, mapFile being null if there's no source map, then evicts the
+    // entries that are too old or too many.
+    public void store(String key, String outFile, String mapFile) throws IOException {
+        Files.createDirectories(dir);
+        put(Paths.get(outFile), dir.resolve(key + ".code"));
+        if (mapFile != null) put(Paths.get(mapFile), dir.resolve(key + ".map"));
+        evict();
+    }
+
+    // copies a file into the cache, through a temporary file so that no one ever sees a partly written entry
+    private void put(Path file, Path entry) throws IOException {
+        Path temp = Files.createTempFile(dir, "entry", ".tmp");
+        try {
+            Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Deletes the entries unused for longer than maxAge, then the least recently used ones until they fit in maxSize.
+    // Temporary files are deleted once they are older than maxAge, the others being copied in right now. Any other
+    // file in the directory is left alone.
+    private synchronized void evict() throws IOException {
+        long now = System.currentTimeMillis();
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                boolean entry = ENTRY.matcher(name).matches();
+                if (!entry && !TEMP.matcher(name).matches() || !Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+                    continue;
+                }
+                if (now - lastUsed(file) > maxAge) {
+                    Files.deleteIfExists(file);
+                } else if (entry) {
+                    entries.add(file);
+                }
+            }
+        }
+
+        long size = 0;
+        for (Path entry : entries) {
+            size += sizeOf(entry);
+        }
+        if (size <= maxSize) return;
+
+        entries.sort(Comparator.comparingLong(AssemblyCache::lastUsed));
+        for (Path entry : entries) {
+            if (size <= maxSize) break;
+            size -= sizeOf(entry);
+            Files.deleteIfExists(entry);
+        }
+    }
+
+    // marks an entry as just used
+    private static void touch(Path entry) throws IOException {
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+    }
+
+    // returns when an entry was last used, 0 if it's gone
+    private static long lastUsed(Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // returns the size of an entry, 0 if it's gone
+    private static long sizeOf(Path entry) {
+        try {
+            return Files.size(entry);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
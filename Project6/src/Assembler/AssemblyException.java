@@ -0,0 +1,24 @@
+package Assembler;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown once a program has been assembled, if it can't be loaded into the Hack computer: every problem found in the
+ * program is listed, rather than only the first one. Used in Assembler.java.
+ */
+public class AssemblyException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> problems; // one line each, e.g. "line 12: @40000 is out of range"
+
+    public AssemblyException(List<String> problems) {
+        super(String.join(System.lineSeparator(), problems));
+        this.problems = Collections.unmodifiableList(problems);
+    }
+
+    public List<String> getProblems() {
+        return problems;
+    }
+}
@@ -0,0 +1,109 @@
+package Assembler;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Assembles many .asm files in one JVM, on a fixed pool of worker threads. Each worker keeps its own Assembler, so its
+ * symbol table and buffers are reused for every file it assembles. Used in Assembler.java.
+ */
+public class BatchAssembler {
+
+    private final Assembler template; // every worker's Assembler gets the options of this one
+    private final int jobs; // number of worker threads
+
+    public BatchAssembler(Assembler template, int jobs) {
+        this.template = template;
+        this.jobs = jobs;
+    }
+
+    // Returns the .asm files named by the command-line arguments, which can be .asm files, directories (all the .asm
+    // files in it) or glob patterns for the files of one directory such as somepath/*.asm. Throws an
+    // IllegalArgumentException for an argument that is none of these.
+    public static List<String> expand(List<String> args) throws IOException {
+        ArrayList<String> filenames = new ArrayList<>();
+
+        for (String arg : args) {
+            if (isGlob(arg)) { // match the file names of the pattern's directory
+                Path pattern = Paths.get(arg);
+                Path dir = pattern.getParent() == null ? Paths.get(".") : pattern.getParent();
+                filenames.addAll(list(dir, pattern.getFileName().toString()));
+            } else if (Files.isDirectory(Paths.get(arg))) {
+                filenames.addAll(list(Paths.get(arg), "*.asm"));
+            } else if (arg.endsWith(".asm")) {
+                filenames.add(arg);
+            } else {
+                throw new IllegalArgumentException(arg + " is not a .asm file, a directory or a pattern");
+            }
+        }
+
+        return filenames;
+    }
+
+    // Assembles the files on the pool, then prints the time each one took, in the order given. Returns the number of
+    // files that couldn't be assembled, whose errors are printed instead.
+    public int assembleAll(List<String> filenames) {
+        ThreadLocal<Assembler> assemblers = ThreadLocal.withInitial(template::copy);
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        long start = System.nanoTime();
+
+        ArrayList<Future<Long>> results = new ArrayList<>();
+        AssemblerStats[] stats = new AssemblerStats[filenames.size()]; // of each file, if collected
+        for (int i = 0; i < filenames.size(); i++) {
+            String filename = filenames.get(i);
+            int file = i;
+            results.add(pool.submit(() -> {
+                long fileStart = System.nanoTime();
+                Assembler assembler = assemblers.get();
+                assembler.assembleFile(filename);
+                if (assembler.getStats() != null) stats[file] = assembler.getStats().copy();
+                return System.nanoTime() - fileStart;
+            }));
+        }
+
+        int failures = 0;
+        for (int i = 0; i < filenames.size(); i++) {
+            try {
+                System.out.printf("%s: %.1f ms%n", filenames.get(i), results.get(i).get() / 1e6);
+                if (stats[i] != null) System.out.println(stats[i].toString("    "));
+            } catch (ExecutionException e) {
+                System.out.println(filenames.get(i) + ": " + e.getCause().getMessage());
+                failures++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        pool.shutdown();
+
+        System.out.printf("%d files assembled in %.1f ms on %d threads%n", filenames.size() - failures,
+                (System.nanoTime() - start) / 1e6, jobs);
+        return failures;
+    }
+
+    // returns the files of a directory matching a glob pattern, sorted by name
+    private static List<String> list(Path dir, String glob) throws IOException {
+        ArrayList<String> filenames = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, glob)) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file) && file.toString().endsWith(".asm")) filenames.add(file.toString());
+            }
+        }
+        Collections.sort(filenames);
+        return filenames;
+    }
+
+    private static boolean isGlob(String arg) {
+        return arg.contains("*") || arg.contains("?") || arg.contains("[") || arg.contains("{");
+    }
+}
@@ -0,0 +1,322 @@
+package Assembler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads an assembly language command, parses it, and provides access to the command's components, like Parser.java,
+ * but without creating any objects per line. The input is read as ASCII into a reusable byte buffer, and each line is
+ * scanned once: spaces, tabs and comments are dropped while the command is copied into a reusable char buffer, and the
+ * positions of the '=' and ';' separators are remembered. The components are then given back as offsets into that
+ * buffer, which stays valid until the next call to advance(). Used in Assembler.java.
+ */
+public class BufferParser {
+
+    private static final int BUFFER_SIZE = 1 << 16; // bytes read from the channel at a time
+
+    private ReadableByteChannel channel; // where the input comes from, null once it's exhausted or if it's all in memory
+    private ReadableByteChannel source; // the channel given to reset(), to be closed by close()
+    private ByteBuffer in; // bytes read but not yet parsed
+    private ByteBuffer buffer; // buffer into which the channel is read, allocated once
+    private ReaderChannel readerChannel; // reads a Reader into the buffer, allocated once
+    private long offset; // number of bytes of the input before position 0 of in, negative for a buffer's position
+
+    private char[] command = new char[64]; // the current command, without spaces, tabs or comments
+    private int length; // number of chars of the current command
+    private int equals; // offset of '=' in the current command, -1 if there's no dest field
+    private int semicolon; // offset of ';' in the current command, -1 if there's no jump field
+
+    // creates a parser without any input, to be given one with reset()
+    public BufferParser() {
+        reset(ByteBuffer.allocate(0));
+    }
+
+    public BufferParser(InputStream in) {
+        reset(in);
+    }
+
+    public BufferParser(Reader in) {
+        reset(in);
+    }
+
+    public BufferParser(ReadableByteChannel channel) {
+        reset(channel);
+    }
+
+    // parses the bytes remaining in the buffer, e.g. a whole file already read or mapped into memory
+    public BufferParser(ByteBuffer in) {
+        reset(in);
+    }
+
+    // The reset methods make the parser start over on a new input, reusing its buffers.
+
+    public void reset(InputStream in) {
+        reset(Channels.newChannel(in));
+    }
+
+    // chars are narrowed to bytes as they are read, chars outside of Latin-1 becoming '?'
+    public void reset(Reader in) {
+        if (readerChannel == null) readerChannel = new ReaderChannel();
+        readerChannel.reader = in;
+        reset(readerChannel);
+    }
+
+    public void reset(ReadableByteChannel channel) {
+        if (buffer == null) buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.channel = channel;
+        this.source = channel;
+        this.in = buffer;
+        this.in.clear();
+        this.in.flip(); // nothing read yet
+        this.offset = 0;
+    }
+
+    public void reset(ByteBuffer in) {
+        this.channel = null;
+        this.source = null;
+        this.in = in;
+        this.offset = -in.position();
+    }
+
+    // checks if the input has another line to process
+    public boolean hasMoreCommands() {
+        return in.hasRemaining() || fill();
+    }
+
+    // moves to the next line, stripping all spaces, tabs and comments from it
+    public void advance() {
+        length = 0;
+        equals = -1;
+        semicolon = -1;
+
+        boolean comment = false; // true once "//" has been seen on this line
+        int previous = -1; // the previous byte on this line, -1 at the start of the line
+
+        while (hasMoreCommands()) {
+            int b = in.get() & 0xFF;
+
+            if (b == '\n') break;
+            if (b == '\r') { // a "\r\n" pair ends a single line
+                if (hasMoreCommands() && in.get(in.position()) == '\n') in.get();
+                break;
+            }
+
+            if (comment) continue;
+
+            if (b == '/' && previous == '/') { // drop the first '/', and everything up to the end of the line
+                length--;
+                comment = true;
+                continue;
+            }
+            previous = b;
+
+            if (b == ' ' || b == '\t') continue;
+
+            if (b == '=' && equals < 0) {
+                equals = length;
+            } else if (b == ';' && semicolon < 0) {
+                semicolon = length;
+            }
+            append((char) b);
+        }
+    }
+
+    // returns the number of bytes of the input parsed so far
+    public long bytesRead() {
+        return offset + in.position();
+    }
+
+    public int commandLength() {
+        return length;
+    }
+
+    // returns the buffer holding the current command, valid until the next call to advance()
+    public char[] command() {
+        return command;
+    }
+
+    // determines the type of command
+    public Parser.Command commandType() {
+        if (length > 0 && command[0] == '@') {
+            return Parser.Command.A_COMMAND;
+        } else if (length > 0 && command[0] == '(') {
+            return Parser.Command.L_COMMAND;
+        } else {
+            return Parser.Command.C_COMMAND;
+        }
+    }
+
+    // returns the offset at which the symbol or decimal XXX of the current command @XXX or (XXX) starts
+    public int symbolStart() {
+        return 1;
+    }
+
+    // returns the offset just past the end of the symbol or decimal XXX of the current command @XXX or (XXX)
+    public int symbolEnd() {
+        if (command[0] == '(') {
+            for (int i = 1; i < length; i++) {
+                if (command[i] == ')') return i;
+            }
+        }
+        return length;
+    }
+
+    // checks if the symbol of the current command is a decimal, i.e. would be accepted by Integer.parseInt()
+    public boolean symbolIsNumber() {
+        return isNumber(command, symbolStart(), symbolEnd());
+    }
+
+    // returns the decimal value of the current command @XXX, to be called only if symbolIsNumber()
+    public int symbolValue() {
+        return numberValue(command, symbolStart(), symbolEnd());
+    }
+
+    // returns the offsets delimiting the dest, comp and jump mnemonics in the current C-command
+    // the dest and jump fields are empty (start == end) when they are absent
+    public int destStart() {
+        return 0;
+    }
+
+    public int destEnd() {
+        return equals < 0 ? 0 : equals;
+    }
+
+    public int compStart() {
+        return equals < 0 ? 0 : equals + 1;
+    }
+
+    public int compEnd() {
+        return semicolon < 0 ? length : semicolon;
+    }
+
+    public int jumpStart() {
+        return semicolon < 0 ? length : semicolon + 1;
+    }
+
+    public int jumpEnd() {
+        return length;
+    }
+
+    // returns the symbol or decimal XXX of the current command @XXX or (XXX) as a new string
+    public String symbol() {
+        return new String(command, symbolStart(), symbolEnd() - symbolStart());
+    }
+
+    // returns the dest mnemonic in the current C-command as a new string, empty if dest field is empty
+    public String dest() {
+        return new String(command, destStart(), destEnd() - destStart());
+    }
+
+    // returns the comp mnemonic in the current C-command as a new string
+    public String comp() {
+        return new String(command, compStart(), compEnd() - compStart());
+    }
+
+    // returns the jump mnemonic in the current C-command as a new string, empty if jump field is empty
+    public String jump() {
+        return new String(command, jumpStart(), jumpEnd() - jumpStart());
+    }
+
+    // closes the channel the input comes from, if any
+    public void close() {
+        try {
+            if (source != null) source.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        channel = null;
+        source = null;
+    }
+
+    // checks if chars[from, to) hold a decimal, i.e. an optional sign followed by digits, that fits in an int
+    static boolean isNumber(char[] chars, int from, int to) {
+        boolean negative = from < to && chars[from] == '-';
+        if (from < to && (chars[from] == '-' || chars[from] == '+')) from++;
+        if (from == to) return false;
+
+        long limit = negative ? (long) Integer.MAX_VALUE + 1 : Integer.MAX_VALUE;
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            char c = chars[i];
+            if (c < '0' || c > '9') return false;
+            value = value * 10 + (c - '0');
+            if (value > limit) return false;
+        }
+        return true;
+    }
+
+    // returns the value of the decimal held in chars[from, to), which must have been checked with isNumber()
+    static int numberValue(char[] chars, int from, int to) {
+        boolean negative = chars[from] == '-';
+        if (chars[from] == '-' || chars[from] == '+') from++;
+
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            value = value * 10 - (chars[i] - '0'); // accumulate negatively so that Integer.MIN_VALUE fits
+        }
+        return negative ? value : -value;
+    }
+
+    // appends a char to the current command, growing the buffer for unusually long lines
+    private void append(char c) {
+        if (length == command.length) {
+            char[] bigger = new char[command.length * 2];
+            System.arraycopy(command, 0, bigger, 0, length);
+            command = bigger;
+        }
+        command[length++] = c;
+    }
+
+    // reads more bytes from the channel, returning false if there are none left
+    private boolean fill() {
+        if (channel == null) return false;
+
+        try {
+            offset += in.limit(); // all parsed
+            in.clear();
+            int read = 0;
+            while (read == 0) {
+                read = channel.read(in);
+            }
+            in.flip();
+            if (read < 0) { // leave the channel open, it's closed by close()
+                channel = null;
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // reads chars from a Reader as bytes, through a char buffer allocated once
+    private static class ReaderChannel implements ReadableByteChannel {
+
+        private Reader reader; // the Reader given to the last reset()
+        private final char[] chars = new char[BUFFER_SIZE];
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int read = reader.read(chars, 0, Math.min(chars.length, dst.remaining()));
+            for (int i = 0; i < read; i++) {
+                dst.put(chars[i] > 0xFF ? (byte) '?' : (byte) chars[i]);
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
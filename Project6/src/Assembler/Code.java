@@ -1,13 +1,23 @@
 package Assembler;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Translates Hack assembly language mnemonics into binary codes. Used in Assembler.java.
+ *
+ * The String methods return the binary digits of each field. The Bits methods work on chars held in a buffer, as given
+ * by BufferParser.java, and return the fields as ints from precomputed tables, so that an instruction is only turned
+ * into text when it is written out. The Mnemonic methods go the other way, for Disassembler.java, from tables
+ * indexed by the bits of each field.
  */
 
 public class Code {
 
+    // returned by the Bits methods for chars which aren't a mnemonic of the field
+    public static final int INVALID = -1;
+
     // create a hashtable mapping comp mnemonics to binary codes
     static final HashMap<String, String> compCodes = new HashMap<String, String>() {{
         put("0", "0101010");
@@ -49,6 +59,146 @@ public class Code {
         put("M|D", "1010101");
     }};
 
+    // chars that can appear in a comp mnemonic, each comp mnemonic is at most 3 of them long
+    private static final String COMP_CHARS = "01-DAM!+&|";
+
+    // index of each ASCII char in COMP_CHARS plus one, 0 for chars that can't appear in a comp mnemonic
+    private static final byte[] compCharIndex = new byte[128];
+
+    // comp bits (a c1..c6) indexed by compKey() of the mnemonic, -1 if the key isn't a valid mnemonic
+    private static final short[] compTable = new short[(COMP_CHARS.length() + 1) * (COMP_CHARS.length() + 1)
+            * (COMP_CHARS.length() + 1)];
+
+    // comp mnemonic of each of the 128 values of the comp bits (a c1..c6), null for those the ALU has no mnemonic for
+    private static final String[] compMnemonics = new String[128];
+
+    // dest and jump mnemonics, indexed by their 3 bits
+    private static final String[] destMnemonics = {"", "M", "D", "MD", "A", "AM", "AD", "AMD"};
+    private static final String[] jumpMnemonics = {"", "JGT", "JEQ", "JGE", "JLT", "JNE", "JLE", "JMP"};
+
+    static {
+        for (int i = 0; i < COMP_CHARS.length(); i++) {
+            compCharIndex[COMP_CHARS.charAt(i)] = (byte) (i + 1);
+        }
+        Arrays.fill(compTable, (short) -1);
+        for (Map.Entry<String, String> entry : compCodes.entrySet()) {
+            char[] mnemonic = entry.getKey().toCharArray();
+            compTable[compKey(mnemonic, 0, mnemonic.length)] = Short.parseShort(entry.getValue(), 2);
+
+            // of the two ways to write a commutative operation, keep the one the course uses: D first, 1 last
+            int bits = Integer.parseInt(entry.getValue(), 2);
+            if (compMnemonics[bits] == null || mnemonicRank(entry.getKey()) < mnemonicRank(compMnemonics[bits])) {
+                compMnemonics[bits] = entry.getKey();
+            }
+        }
+    }
+
+    private static int mnemonicRank(String comp) {
+        return comp.charAt(0) == 'D' ? 0 : comp.charAt(0) == '1' ? 2 : 1;
+    }
+
+    // returns the dest mnemonic held in chars[from, to) as its 3 bits (d1 d2 d3), or INVALID unless it's made of A, D
+    // and M, in any order, each at most once
+    public static int destBits(char[] chars, int from, int to) {
+        int bits = 0;
+        for (int i = from; i < to; i++) {
+            int bit;
+            switch (chars[i]) {
+                case 'A':
+                    bit = 4;
+                    break;
+                case 'D':
+                    bit = 2;
+                    break;
+                case 'M':
+                    bit = 1;
+                    break;
+                default:
+                    return INVALID;
+            }
+            if ((bits & bit) != 0) return INVALID;
+            bits |= bit;
+        }
+        return bits;
+    }
+
+    // returns the comp mnemonic held in chars[from, to) as its 7 bits (a c1..c6), or INVALID if it isn't one
+    public static int compBits(char[] chars, int from, int to) {
+        int key = compKey(chars, from, to);
+        return key < 0 ? INVALID : compTable[key];
+    }
+
+    // returns the jump mnemonic held in chars[from, to) as its 3 bits (j1 j2 j3), or INVALID if it isn't one
+    public static int jumpBits(char[] chars, int from, int to) {
+        if (from == to) return 0;
+        if (to - from != 3 || chars[from] != 'J') return INVALID;
+
+        char first = chars[from + 1];
+        char second = chars[from + 2];
+        if (first == 'G' && second == 'T') return 1;
+        if (first == 'E' && second == 'Q') return 2;
+        if (first == 'G' && second == 'E') return 3;
+        if (first == 'L' && second == 'T') return 4;
+        if (first == 'N' && second == 'E') return 5;
+        if (first == 'L' && second == 'E') return 6;
+        if (first == 'M' && second == 'P') return 7;
+        return INVALID;
+    }
+
+    // returns the 16-bit C-instruction made of the given comp, dest and jump bits
+    public static int cInstruction(int comp, int dest, int jump) {
+        return 0b111 << 13 | comp << 6 | dest << 3 | jump;
+    }
+
+    // checks if a value fits in the 15 bits of an A-instruction, i.e. is between 0 and 32767
+    public static boolean fitsAInstruction(int value) {
+        return (value & ~0x7FFF) == 0;
+    }
+
+    // returns the 16-bit A-instruction loading the given value into the A-register
+    public static int aInstruction(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative number can't be loaded into A-register");
+        } else if (value > 32767) {
+            throw new IllegalArgumentException("Number too big to load into A-register");
+        }
+        return value;
+    }
+
+    // returns the mnemonic of the 7 comp bits (a c1..c6), or null if they don't match any mnemonic
+    public static String compMnemonic(int bits) {
+        return compMnemonics[bits];
+    }
+
+    // returns the mnemonic of the 3 dest bits (d1 d2 d3), "" for no dest
+    public static String destMnemonic(int bits) {
+        return destMnemonics[bits];
+    }
+
+    // returns the mnemonic of the 3 jump bits (j1 j2 j3), "" for no jump
+    public static String jumpMnemonic(int bits) {
+        return jumpMnemonics[bits];
+    }
+
+    // writes the 16 binary digits of an instruction into out[offset, offset + 16)
+    public static void toText(int instruction, byte[] out, int offset) {
+        for (int i = 15; i >= 0; i--) {
+            out[offset++] = (byte) ('0' + (instruction >>> i & 1));
+        }
+    }
+
+    // maps a comp mnemonic of up to 3 chars to a unique index into compTable, or -1 if it can't be a mnemonic
+    private static int compKey(char[] chars, int from, int to) {
+        if (to - from > 3) return -1;
+        int key = 0;
+        for (int i = to - 1; i >= from; i--) {
+            char c = chars[i];
+            if (c >= 128 || compCharIndex[c] == 0) return -1;
+            key = key * (COMP_CHARS.length() + 1) + compCharIndex[c];
+        }
+        return key;
+    }
+
     // returns dest mnemonic in its binary representation (3 bits)
     public static String dest(String input) {
         StringBuilder binary = new StringBuilder();
@@ -101,25 +251,13 @@ public class Code {
 
     // returns decimal value in its 15-bit binary representation
     public static String binary(int decimal) throws IllegalArgumentException {
+        int value = aInstruction(decimal); // checks the range
 
-        if (decimal > 65535) {
-            throw new IllegalArgumentException("Number too big to load into A-register");
-        }
-
-        StringBuilder sb = new StringBuilder();
-
-        while (decimal > 0) {
-            sb.append(decimal % 2);
-            decimal /= 2;
-        }
-
-        // pad with zeroes until number is 15 bits
-        while (sb.length() < 15) {
-            sb.append("0");
+        char[] digits = new char[15];
+        for (int i = 14; i >= 0; i--) {
+            digits[i] = (char) ('0' + (value & 1));
+            value >>= 1;
         }
-
-        sb.reverse();
-
-        return sb.toString();
+        return new String(digits);
     }
 }
@@ -0,0 +1,211 @@
+package Assembler;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Compilation: javac Assembler/*.java
+ * Execution: java Assembler.Disassembler filename.hack
+ * Dependencies: Code.java, Program.java, SourceMap.java, HackWriter.java
+ *
+ * Turns Hack machine code back into assembly language: takes a .hack file, or a packed .hackbin file (see
+ * HackWriter.java), and writes a .dis.asm file next to it which assembles back into the same machine code.
+ *
+ * Machine code has no labels, so they are recovered from the jumps: an A-command right before a jump loads the jump's
+ * target, which gets a label, and the A-command refers to it by name. The labels are named after their address, e.g.
+ * (L42), unless a .hackmap file (see SourceMap.java) lies next to the machine code, whose label names are used instead.
+ * Other A-commands keep their numbers, since there is no telling an address from any other constant.
+ *
+ * The mnemonics of each field come from tables indexed by its bits (see Code.java), from which the whole line of every
+ * C-instruction is made beforehand, so that a C-instruction is decoded by a single lookup. The text is written into a
+ * reusable byte buffer, and no object is created per instruction.
+ *
+ * Machine code which no assembly program assembles into is rejected with an IllegalArgumentException: comp bits that
+ * have no mnemonic, and C-instructions whose bits 13 and 14, ignored by the CPU, aren't set as the assembler sets them.
+ */
+public class Disassembler {
+
+    private static final int BUFFER_SIZE = 1 << 16; // bytes written to the stream at a time
+
+    private static final byte[] NEWLINE = ascii(System.lineSeparator());
+    private static final byte[] OPEN = ascii("(");
+    private static final byte[] CLOSE = ascii(")");
+
+    // the line of each C-instruction, indexed by its 13 low bits (a c1..c6 d1 d2 d3 j1 j2 j3), null if the comp bits
+    // have no mnemonic
+    private static final byte[][] cInstructionLines = new byte[1 << 13][];
+
+    static {
+        for (int comp = 0; comp < 128; comp++) {
+            if (Code.compMnemonic(comp) == null) continue;
+            for (int dest = 0; dest < 8; dest++) {
+                for (int jump = 0; jump < 8; jump++) {
+                    String line = (dest == 0 ? "" : Code.destMnemonic(dest) + "=") + Code.compMnemonic(comp)
+                            + (jump == 0 ? "" : ";" + Code.jumpMnemonic(jump)) + System.lineSeparator();
+                    cInstructionLines[comp << 6 | dest << 3 | jump] = ascii(line);
+                }
+            }
+        }
+    }
+
+    private final byte[] buffer = new byte[BUFFER_SIZE]; // reused for every program disassembled
+    private int position; // bytes held in the buffer
+    private long written; // bytes written to the stream for the current program
+
+    public static void main(String[] args) {
+        if (args.length != 1 || !(args[0].endsWith(".hack") || args[0].endsWith(".hackbin"))) {
+            System.err.println("usage: java Assembler.Disassembler filename.hack");
+            System.exit(1);
+        }
+
+        String filename = args[0];
+        String baseName = filename.substring(0, filename.lastIndexOf(".hack"));
+        try {
+            Program program;
+            try (FileChannel channel = FileChannel.open(Paths.get(filename))) {
+                program = Program.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+            if (Files.exists(Paths.get(baseName + ".hackmap"))) {
+                try (InputStream map = new FileInputStream(baseName + ".hackmap")) {
+                    program = program.withLabels(SourceMap.read(map));
+                }
+            }
+
+            try (OutputStream out = new FileOutputStream(baseName + ".dis.asm")) {
+                new Disassembler().disassemble(program, out);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // Writes the program as assembly language, one command or label per line, and returns the number of bytes written.
+    // The stream isn't closed. Throws an IllegalArgumentException for a C-instruction whose comp bits have no mnemonic,
+    // or whose bits 13 and 14 aren't both set.
+    public long disassemble(Program program, OutputStream out) throws IOException {
+        int size = program.size();
+        position = 0;
+        written = 0;
+
+        // find the jump targets, and the A-commands loading them
+        boolean[] loadsTarget = new boolean[size]; // whether each command is an A-command loading a jump target
+        boolean[] isTarget = new boolean[size + 1];
+        for (int i = 0; i + 1 < size; i++) {
+            int value = program.instruction(i);
+            int next = program.instruction(i + 1);
+            if ((value & 0x8000) == 0 && (next & 0x8000) != 0 && (next & 7) != 0 && value <= size) {
+                loadsTarget[i] = true;
+                isTarget[value] = true;
+            }
+        }
+
+        // name the targets after the program's labels, the first one at each address, or else after their address
+        byte[][] names = new byte[size + 1][]; // name of each target with a label in the program, as ASCII
+        for (int i = program.labelCount() - 1; i >= 0; i--) {
+            int address = program.labelAddress(i);
+            if (address <= size && isTarget[address]) names[address] = ascii(program.labelName(i));
+        }
+        byte[] prefix = ascii(syntheticPrefix(program));
+
+        int label = 0; // next label of the program to write
+        for (int i = 0; i <= size; i++) {
+            boolean labelled = false; // whether the program has a label at this address
+            while (label < program.labelCount() && program.labelAddress(label) == i) {
+                writeLabel(ascii(program.labelName(label++)), -1, out);
+                labelled = true;
+            }
+            if (isTarget[i] && !labelled) writeLabel(prefix, i, out);
+            if (i == size) break;
+
+            int instruction = program.instruction(i);
+            if ((instruction & 0x8000) == 0) {
+                if (position == buffer.length) flush(out);
+                buffer[position++] = '@';
+                if (loadsTarget[i] && names[instruction] != null) {
+                    put(names[instruction], out);
+                } else if (loadsTarget[i]) {
+                    put(prefix, out);
+                    putNumber(instruction, out);
+                } else {
+                    putNumber(instruction, out);
+                }
+                put(NEWLINE, out);
+            } else {
+                byte[] line = cInstructionLines[instruction & 0x1FFF];
+                if (line == null || (instruction & 0x6000) != 0x6000) {
+                    throw new IllegalArgumentException("Instruction " + Integer.toBinaryString(instruction)
+                            + " at address " + i + (line == null ? " has no comp mnemonic"
+                            : " has bits 13 and 14 not set, which a C-command always assembles into"));
+                }
+                put(line, out);
+            }
+        }
+
+        flush(out);
+        out.flush();
+        return written;
+    }
+
+    // writes a label definition on its own line, the name being followed by the address if it isn't -1
+    private void writeLabel(byte[] name, int address, OutputStream out) throws IOException {
+        put(OPEN, out);
+        put(name, out);
+        if (address >= 0) putNumber(address, out);
+        put(CLOSE, out);
+        put(NEWLINE, out);
+    }
+
+    // returns the prefix of the labels named after their address: L, or as many underscores before it as needed for
+    // the names not to clash with the program's labels
+    private static String syntheticPrefix(Program program) {
+        String prefix = "L";
+        for (int i = 0; i < program.labelCount(); i++) {
+            String name = program.labelName(i);
+            if (name.length() > prefix.length() && name.startsWith(prefix)
+                    && name.chars().skip(prefix.length()).allMatch(Character::isDigit)) {
+                prefix = "_" + prefix;
+                i = -1; // check again
+            }
+        }
+        return prefix;
+    }
+
+    // appends the decimal digits of a number between 0 and 32767
+    private void putNumber(int value, OutputStream out) throws IOException {
+        if (position + 5 > buffer.length) flush(out);
+        int digits = value >= 10000 ? 5 : value >= 1000 ? 4 : value >= 100 ? 3 : value >= 10 ? 2 : 1;
+        for (int i = position + digits - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        position += digits;
+    }
+
+    // appends bytes to the buffer, writing the buffer out first if they don't fit
+    private void put(byte[] bytes, OutputStream out) throws IOException {
+        if (position + bytes.length > buffer.length) {
+            flush(out);
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+                written += bytes.length;
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void flush(OutputStream out) throws IOException {
+        out.write(buffer, 0, position);
+        written += position;
+        position = 0;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,261 @@
+package Assembler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The machine code for a run of consecutive source lines, encoded without looking at any other part of the program.
+ * Used in Assembler.java.
+ *
+ * Labels can't be resolved while a fragment is encoded: a label may be defined further down the file, or defined again
+ * later on (the Jack compiler reuses labels such as WHILE_EXP0 in every function, and the last definition wins). So
+ * every A-command referring to a symbol gets an empty slot, recorded in a fixup list, and the labels defined in the
+ * fragment are recorded with their addresses relative to its start. Fragments are then merged, in source order, into
+ * the whole program, and its symbols resolved.
+ *
+ * The symbols referred to are numbered as they are first met, so a fixup is just a pair of ints: the String for a symbol
+ * is only created once per fragment, however many A-commands refer to it.
+ *
+ * A constant that doesn't fit in an A-instruction, an @ with nothing after it, or a C-command field which isn't a
+ * mnemonic, doesn't stop the encoding: it's recorded as a problem, with its line, and encoded as 0 so that the rest of
+ * the program can still be checked. Assembler.java reports all of them at once.
+ */
+class Fragment {
+
+    int[] codes = new int[1024]; // binary code of each command, indexed by address relative to the fragment
+    int[] lines = new int[1024]; // source line of each command, counted from 1 at the start of the fragment
+    int count; // number of commands encoded
+    int lineCount; // number of source lines read
+    final ArrayList<Symbol> labels = new ArrayList<>(); // labels defined in the fragment, in source order
+    final ArrayList<String> symbols = new ArrayList<>(); // symbols referred to by A-commands, by number
+    private final SymbolTable symbolNumbers = SymbolTable.empty(); // number of each symbol referred to
+    int[] fixupAddresses = new int[256]; // address of each A-command waiting for its symbol to be resolved
+    int[] fixupSymbols = new int[256]; // number of the symbol each of those A-commands refers to
+    int fixupCount; // number of A-commands waiting for their symbol to be resolved
+    boolean trailingNewline; // whether the fragment has more lines after its last command
+    final ArrayList<Problem> problems = new ArrayList<>(); // the commands that can't be encoded, in source order
+
+    // encodes every command read by the parser, replacing whatever the fragment held, and returns the fragment
+    Fragment encode(BufferParser parser) {
+        clear();
+
+        while (parser.hasMoreCommands()) {
+            parser.advance(); // go to the next line, stripping out all white spaces, tabs and comments
+            lineCount++;
+            if (parser.commandLength() == 0) continue; // don't process unless there's a command
+
+            Parser.Command commandType = parser.commandType();
+
+            if (commandType == Parser.Command.L_COMMAND) {
+                labels.add(new Symbol(parser.symbol(), count)); // label refers to the next command
+                continue; // don't write anything to output for L commands
+            }
+
+            if (count == codes.length) {
+                codes = Arrays.copyOf(codes, count * 2);
+                lines = Arrays.copyOf(lines, count * 2);
+            }
+            lines[count] = lineCount;
+
+            // encode the command according to its type
+            char[] command = parser.command();
+            switch (commandType) {
+                case C_COMMAND:
+                    int comp = Code.compBits(command, parser.compStart(), parser.compEnd());
+                    int dest = Code.destBits(command, parser.destStart(), parser.destEnd());
+                    int jump = Code.jumpBits(command, parser.jumpStart(), parser.jumpEnd());
+                    if (comp == Code.INVALID || dest == Code.INVALID || jump == Code.INVALID) {
+                        invalidFields(parser, comp, dest, jump);
+                        codes[count++] = 0;
+                    } else {
+                        codes[count++] = Code.cInstruction(comp, dest, jump);
+                    }
+                    break;
+                case A_COMMAND:
+                    if (parser.symbolIsNumber()) {
+                        int value = parser.symbolValue();
+                        if (!Code.fitsAInstruction(value)) outOfRange(command, parser.symbolEnd());
+                        codes[count++] = value & 0x7FFF;
+                    } else if (parser.symbolStart() == parser.symbolEnd()) { // nothing after the @
+                        problems.add(new Problem(lineCount, "@ is followed by no symbol or number"));
+                        codes[count++] = 0;
+                    } else if (isConstant(command[parser.symbolStart()])) { // too many digits to be a number
+                        outOfRange(command, parser.symbolEnd());
+                        codes[count++] = 0;
+                    } else { // leave a slot to patch once all labels are known
+                        addFixup(parser.command(), parser.symbolStart(), parser.symbolEnd());
+                    }
+                    break;
+            }
+
+            trailingNewline = parser.hasMoreCommands();
+        }
+
+        return this;
+    }
+
+    // empties the fragment, keeping its buffers so that it can be used to encode another run of lines
+    void clear() {
+        count = 0;
+        lineCount = 0;
+        labels.clear();
+        symbols.clear();
+        symbolNumbers.clear();
+        fixupCount = 0;
+        trailingNewline = false;
+        problems.clear();
+    }
+
+    // joins fragments, in source order, into a single fragment holding the whole program, with its symbols unresolved
+    static Fragment merge(List<Fragment> fragments) {
+        if (fragments.size() == 1) return fragments.get(0);
+
+        Fragment program = new Fragment();
+        for (Fragment fragment : fragments) {
+            program.count += fragment.count;
+        }
+        program.codes = new int[program.count];
+        program.lines = new int[program.count];
+
+        // lay the fragments out one after the other
+        int base = 0; // address of the first command of the fragment
+        for (Fragment fragment : fragments) {
+            System.arraycopy(fragment.codes, 0, program.codes, base, fragment.count);
+            for (int i = 0; i < fragment.count; i++) {
+                program.lines[base + i] = program.lineCount + fragment.lines[i];
+            }
+
+            for (Symbol label : fragment.labels) {
+                program.labels.add(new Symbol(label.name, base + label.address));
+            }
+            for (Problem problem : fragment.problems) {
+                program.problems.add(new Problem(program.lineCount + problem.line, problem.message));
+            }
+
+            int[] numbers = new int[fragment.symbols.size()]; // number in the program of each symbol of the fragment
+            for (int i = 0; i < numbers.length; i++) {
+                char[] name = fragment.symbols.get(i).toCharArray();
+                numbers[i] = program.symbolNumber(name, 0, name.length);
+            }
+            for (int i = 0; i < fragment.fixupCount; i++) {
+                program.addFixup(base + fragment.fixupAddresses[i], numbers[fragment.fixupSymbols[i]]);
+            }
+
+            program.lineCount += fragment.lineCount;
+
+            if (fragment.count > 0) { // more lines follow the last command if any later fragment holds lines at all
+                program.trailingNewline = fragment.trailingNewline || fragment != fragments.get(fragments.size() - 1);
+            }
+            base += fragment.count;
+        }
+
+        return program;
+    }
+
+    // Adds the labels to the table, then patches the pending A-commands. Symbols still missing from the table are
+    // variables, and are allocated in order of first use, just as a second pass through the file would do. An address
+    // too big for an A-instruction is cut to 15 bits: it can only come from a program too big for ROM, or with too many
+    // variables, which the caller is expected to report.
+    void resolve(SymbolTable symTable) {
+        for (Symbol label : labels) {
+            symTable.addEntry(label.name, label.address);
+        }
+
+        int[] addresses = new int[symbols.size()]; // address of each symbol, once resolved
+        Arrays.fill(addresses, -1);
+        for (int i = 0; i < fixupCount; i++) {
+            int symbol = fixupSymbols[i];
+            if (addresses[symbol] < 0) {
+                addresses[symbol] = symTable.lookupOrAllocate(symbols.get(symbol));
+            }
+            codes[fixupAddresses[i]] = addresses[symbol] & 0x7FFF;
+        }
+    }
+
+    // Returns the labels of a program whose symbols have been resolved into the symbol table, with their addresses, in
+    // address order. A label defined more than once is only listed once, at its last definition.
+    List<Symbol> resolvedLabels(SymbolTable symTable) {
+        LinkedHashMap<String, Symbol> resolved = new LinkedHashMap<>();
+        for (Symbol label : labels) {
+            resolved.remove(label.name);
+            resolved.put(label.name, new Symbol(label.name, symTable.getAddress(label.name)));
+        }
+
+        ArrayList<Symbol> sorted = new ArrayList<>(resolved.values());
+        sorted.sort(Comparator.comparingInt(label -> label.address)); // stable, so labels at one address keep their order
+        return sorted;
+    }
+
+    // records that the constant of the A-command held in command[0, end) doesn't fit in an A-instruction
+    // records a problem for each field of a C-command which isn't a mnemonic
+    private void invalidFields(BufferParser parser, int comp, int dest, int jump) {
+        char[] command = parser.command();
+        if (dest == Code.INVALID) invalid("dest", command, parser.destStart(), parser.destEnd());
+        if (comp == Code.INVALID) invalid("comp", command, parser.compStart(), parser.compEnd());
+        if (jump == Code.INVALID) invalid("jump", command, parser.jumpStart(), parser.jumpEnd());
+    }
+
+    private void invalid(String field, char[] command, int from, int to) {
+        problems.add(new Problem(lineCount, "invalid " + field + " mnemonic \"" + new String(command, from, to - from)
+                + "\""));
+    }
+
+    private void outOfRange(char[] command, int end) {
+        problems.add(new Problem(lineCount, new String(command, 0, end) + " is out of range, an A-command loads 0 to "
+                + "32767"));
+    }
+
+    // checks if the first char of an A-command's symbol makes it a constant, as a symbol can't start with it
+    private static boolean isConstant(char first) {
+        return first >= '0' && first <= '9' || first == '-' || first == '+';
+    }
+
+    // leaves the next command empty, to be patched with the address of the symbol held in chars[from, to)
+    private void addFixup(char[] chars, int from, int to) {
+        codes[count] = 0; // an A-command, whatever its address turns out to be
+        addFixup(count++, symbolNumber(chars, from, to));
+    }
+
+    // records that the command at the given address is to be patched with the address of the given symbol
+    private void addFixup(int address, int symbol) {
+        if (fixupCount == fixupAddresses.length) {
+            fixupAddresses = Arrays.copyOf(fixupAddresses, fixupCount * 2);
+            fixupSymbols = Arrays.copyOf(fixupSymbols, fixupCount * 2);
+        }
+        fixupAddresses[fixupCount] = address;
+        fixupSymbols[fixupCount] = symbol;
+        fixupCount++;
+    }
+
+    // returns the number of the symbol held in chars[from, to), numbering it if it's referred to for the first time
+    private int symbolNumber(char[] chars, int from, int to) {
+        int symbol = symbolNumbers.putIfAbsent(chars, from, to, symbols.size());
+        if (symbol == symbols.size()) symbols.add(new String(chars, from, to - from)); // first reference to it
+        return symbol;
+    }
+
+    // a command that can't be encoded, and why
+    static class Problem {
+        final int line; // relative to the start of the fragment
+        final String message;
+
+        Problem(int line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+    }
+
+    // a label found in a fragment, and the command it refers to
+    static class Symbol {
+        final String name;
+        final int address; // relative to the start of the fragment
+
+        Symbol(String name, int address) {
+            this.name = name;
+            this.address = address;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package Assembler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes encoded instructions to a .hack file. Used in Assembler.java.
+ *
+ * Besides the text format, instructions can be written in a packed binary format, which takes 2 bytes per instruction
+ * instead of 17 and can be loaded straight into a ROM array. A packed file holds a 12-byte header followed by the
+ * instructions as big-endian 16-bit words:
+ *
+ *   bytes 0-3    magic number, the ASCII chars "HACK"
+ *   bytes 4-5    format version, currently 1
+ *   bytes 6-7    reserved, 0
+ *   bytes 8-11   number of instructions that follow
+ */
+public class HackWriter {
+
+    private static final int BUFFER_SIZE = 1 << 16; // bytes written to the stream at a time
+
+    static final int BINARY_MAGIC = 'H' << 24 | 'A' << 16 | 'C' << 8 | 'K';
+    static final short BINARY_VERSION = 1;
+    static final int BINARY_HEADER_SIZE = 12;
+
+    private final byte[] newline = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private byte[] textBuffer; // allocated on first use, then reused for every file written
+    private ByteBuffer binaryBuffer; // allocated on first use, then reused for every file written
+
+    // writes instructions[0, count) as text, one instruction of 16 binary digits per line
+    // lines are separated like PrintWriter.println() would, and the last line is only ended if trailingNewline is set
+    // returns the number of bytes written
+    public long writeText(int[] instructions, int count, boolean trailingNewline, OutputStream out)
+            throws IOException {
+        int lineLength = 16 + newline.length;
+        if (textBuffer == null) textBuffer = new byte[BUFFER_SIZE - BUFFER_SIZE % lineLength];
+        byte[] buffer = textBuffer;
+        int position = 0;
+        long written = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (position == buffer.length) {
+                out.write(buffer, 0, position);
+                written += position;
+                position = 0;
+            }
+
+            Code.toText(instructions[i], buffer, position);
+            position += 16;
+
+            if (i < count - 1 || trailingNewline) {
+                System.arraycopy(newline, 0, buffer, position, newline.length);
+                position += newline.length;
+            }
+        }
+
+        out.write(buffer, 0, position);
+        out.flush();
+        return written + position;
+    }
+
+    // writes instructions[0, count) in the packed binary format, and returns the number of bytes written
+    public long writeBinary(int[] instructions, int count, WritableByteChannel out) throws IOException {
+        if (binaryBuffer == null) binaryBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE); // big-endian by default
+        ByteBuffer buffer = binaryBuffer;
+        buffer.clear();
+        buffer.putInt(BINARY_MAGIC).putShort(BINARY_VERSION).putShort((short) 0).putInt(count);
+
+        for (int i = 0; i < count; i++) {
+            if (!buffer.hasRemaining()) drain(buffer, out);
+            buffer.putShort((short) instructions[i]);
+        }
+
+        drain(buffer, out);
+        return BINARY_HEADER_SIZE + 2L * count;
+    }
+
+    // writes out everything put in the buffer so far, leaving it empty
+    private static void drain(ByteBuffer buffer, WritableByteChannel out) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+}
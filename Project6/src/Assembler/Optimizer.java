@@ -0,0 +1,332 @@
+package Assembler;
+
+import java.util.Arrays;
+
+/**
+ * Rewrites a program before its symbols are resolved, to make it smaller and faster. Used in Assembler.java.
+ *
+ * The program is given as a merged Fragment: labels are still names attached to addresses, and A-commands referring to
+ * symbols are still fixups, so commands can be removed and the labels simply follow the code they refer to. This relies
+ * on code addresses only being taken through labels, as in the code written by the VM translator, so a program loading
+ * a number into A right before a jump is left as it is.
+ */
+class Optimizer {
+
+    // the C-instructions looked for by the peephole pass
+    private static final int INCREMENT_M = instruction("M", "M+1", "");
+    private static final int DECREMENT_AM = instruction("AM", "M-1", "");
+    private static final int LOAD_A_FROM_M = instruction("A", "M", "");
+
+    private static final int UNCONDITIONAL = 7; // jump bits of JMP
+
+    // Removes redundant sequences of commands, until there are none left, and returns the number of commands removed:
+    // - a push followed by a pop, i.e. @SP, M=M+1, @SP, AM=M-1, which just points A at the top of the stack: @SP, A=M
+    // - an @XXX loading a value that A already holds, since it was last loaded without being overwritten
+    // - a jump to the command that follows it
+    static int peephole(Fragment program) {
+        if (!isRelocatable(program)) return 0;
+
+        int removed = 0;
+        while (true) {
+            int pass = fusePushPop(program) + removeRedundantLoads(program) + removeJumpsToNext(program);
+            if (pass == 0) return removed;
+            removed += pass;
+        }
+    }
+
+    // Makes every jump to an unconditional jump go straight to the latter's target, following chains of them, and
+    // removes the jumps to the command that follows them, until there are none left. Returns the number of jumps
+    // changed or removed. The jumps left without any command jumping to them can then be removed as dead code.
+    static int threadJumps(Fragment program) {
+        if (!isRelocatable(program)) return 0;
+
+        int changed = 0;
+        while (true) {
+            int pass = retargetJumps(program) + removeJumpsToNext(program);
+            if (pass == 0) return changed;
+            changed += pass;
+        }
+    }
+
+    // Points every @LABEL right before a jump at the final target of the chain of unconditional jumps starting at
+    // LABEL, and returns the number of them changed. A jump which also stores its result, e.g. D=A;JMP, is left as it
+    // is, since it may store the address. The jump then leaves a different address in A, so a conditional jump is only
+    // changed if A is loaded again by the command after it.
+    private static int retargetJumps(Fragment program) {
+        int[] fixups = fixupAt(program);
+        int[] labelAddresses = labelAddresses(program);
+        int count = 0;
+
+        for (int i = 0; i + 1 < program.count; i++) {
+            int code = program.codes[i + 1];
+            if (fixups[i] < 0 || isAInstruction(code) || jump(code) == 0 || dest(code) != 0) continue;
+            if (jump(code) != UNCONDITIONAL && i + 2 < program.count && !isAInstruction(program.codes[i + 2])) {
+                continue;
+            }
+
+            int symbol = program.fixupSymbols[fixups[i]];
+            int target = finalTarget(program, fixups, labelAddresses, symbol);
+            if (target != symbol) {
+                program.fixupSymbols[fixups[i]] = target;
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    // Returns the symbol a jump to the given label ends up at, following the labels referring to an @OTHER_LABEL and an
+    // unconditional jump with no dest. A chain going round in a loop is left as it is.
+    private static int finalTarget(Fragment program, int[] fixups, int[] labelAddresses, int symbol) {
+        int target = symbol;
+        for (int steps = 0; steps < program.count; steps++) {
+            int address = labelAddresses[target];
+            if (address < 0 || address + 1 >= program.count || fixups[address] < 0) return target;
+
+            int code = program.codes[address + 1];
+            if (isAInstruction(code) || jump(code) != UNCONDITIONAL || dest(code) != 0) return target;
+            target = program.fixupSymbols[fixups[address]];
+        }
+        return symbol;
+    }
+
+    // Removes the commands that can't be reached from address 0, and the labels referring to them, and returns the
+    // number of commands removed. Control flows from a command to the next one, unless it's an unconditional jump, and
+    // to any label loaded into A by a command reached: either right before a jump, or to be jumped to later through a
+    // computed jump such as @RET, A=M, 0;JMP, whose target can't be known so is assumed to be any label taken.
+    static int eliminateDeadCode(Fragment program) {
+        if (!isRelocatable(program)) return 0;
+
+        int[] symbols = symbolAt(program);
+        int[] labelAddresses = labelAddresses(program);
+        boolean[] reachable = new boolean[program.count + 1];
+        int[] pending = new int[program.count + 1]; // addresses reached whose successors haven't been followed yet
+        int top = 0;
+
+        reachable[0] = true;
+        pending[top++] = 0;
+        while (top > 0) {
+            int i = pending[--top];
+            if (i == program.count) continue; // past the last command
+
+            int code = program.codes[i];
+            if (isAInstruction(code)) {
+                top = reach(i + 1, reachable, pending, top);
+                if (symbols[i] >= 0) top = reach(labelAddresses[symbols[i]], reachable, pending, top);
+            } else if (jump(code) != UNCONDITIONAL) {
+                top = reach(i + 1, reachable, pending, top);
+            }
+        }
+
+        boolean[] removed = new boolean[program.count];
+        int count = 0;
+        for (int i = 0; i < program.count; i++) {
+            if (!reachable[i]) {
+                removed[i] = true;
+                count++;
+            }
+        }
+        program.labels.removeIf(label -> !reachable[label.address]);
+
+        return compact(program, removed, count);
+    }
+
+    // marks an address as reached, and pushes it onto the pending addresses if it wasn't already, ignoring the -1 of a
+    // symbol that isn't a label; returns the new top of the pending addresses
+    private static int reach(int address, boolean[] reachable, int[] pending, int top) {
+        if (address < 0 || reachable[address]) return top;
+        reachable[address] = true;
+        pending[top] = address;
+        return top + 1;
+    }
+
+    // replaces @SP, M=M+1, @SP, AM=M-1 by @SP, A=M, unless a label refers to one of the commands dropped or changed
+    private static int fusePushPop(Fragment program) {
+        int[] symbols = symbolAt(program);
+        boolean[] labelled = labelled(program);
+        boolean[] removed = new boolean[program.count];
+        int sp = symbolNumber(program, "SP");
+        int count = 0;
+
+        for (int i = 0; i + 3 < program.count; i++) {
+            if (sp >= 0 && symbols[i] == sp && program.codes[i + 1] == INCREMENT_M && symbols[i + 2] == sp
+                    && program.codes[i + 3] == DECREMENT_AM
+                    && !labelled[i + 1] && !labelled[i + 2] && !labelled[i + 3]) {
+                program.codes[i + 1] = LOAD_A_FROM_M;
+                removed[i + 2] = true;
+                removed[i + 3] = true;
+                count += 2;
+                i += 3;
+            }
+        }
+
+        return compact(program, removed, count);
+    }
+
+    // removes an @XXX if A already holds XXX, going through the program and keeping track of the value in A
+    private static int removeRedundantLoads(Fragment program) {
+        int[] symbols = symbolAt(program);
+        boolean[] labelled = labelled(program);
+        boolean[] removed = new boolean[program.count];
+        int count = 0;
+
+        long known = -1; // value held by A: a number, or a symbol number shifted past the numbers, -1 if unknown
+        for (int i = 0; i < program.count; i++) {
+            if (labelled[i]) known = -1; // may be jumped to from anywhere
+
+            int code = program.codes[i];
+            if (isAInstruction(code)) {
+                long value = symbols[i] >= 0 ? (1L << 16) + symbols[i] : code;
+                if (value == known && !labelled[i]) {
+                    removed[i] = true;
+                    count++;
+                }
+                known = value;
+            } else if ((dest(code) & 4) != 0) {
+                known = -1; // A is overwritten
+            }
+        }
+
+        return compact(program, removed, count);
+    }
+
+    // Removes an @LABEL followed by a jump with no dest, if the label refers to the command after the jump. That command
+    // could read the address left in A, so the jump is only removed if it loads A again, or if it's past the end of the
+    // program, where ROM holds @0.
+    private static int removeJumpsToNext(Fragment program) {
+        int[] symbols = symbolAt(program);
+        int[] labelAddresses = labelAddresses(program);
+        boolean[] labelled = labelled(program);
+        boolean[] removed = new boolean[program.count];
+        int count = 0;
+
+        for (int i = 0; i + 1 < program.count; i++) {
+            int code = program.codes[i + 1];
+            if (symbols[i] >= 0 && labelAddresses[symbols[i]] == i + 2 && !isAInstruction(code) && jump(code) != 0
+                    && dest(code) == 0 && !labelled[i + 1]
+                    && (i + 2 == program.count || isAInstruction(program.codes[i + 2]))) {
+                removed[i] = true;
+                removed[i + 1] = true;
+                count += 2;
+                i++;
+            }
+        }
+
+        return compact(program, removed, count);
+    }
+
+    // checks that no number is loaded into A right before a jump, so that code can be moved
+    private static boolean isRelocatable(Fragment program) {
+        int[] symbols = symbolAt(program);
+        for (int i = 0; i + 1 < program.count; i++) {
+            int next = program.codes[i + 1];
+            if (isAInstruction(program.codes[i]) && symbols[i] < 0 && !isAInstruction(next) && jump(next) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Drops the removed commands, moving the remaining ones, the labels and the fixups to their new addresses. A label
+    // referring to a removed command then refers to the next command left. Returns the number of commands removed.
+    static int compact(Fragment program, boolean[] removed, int count) {
+        if (count == 0) return 0;
+
+        int[] newAddresses = new int[program.count + 1];
+        int kept = 0;
+        for (int i = 0; i < program.count; i++) {
+            newAddresses[i] = kept;
+            if (!removed[i]) {
+                program.codes[kept] = program.codes[i];
+                program.lines[kept] = program.lines[i];
+                kept++;
+            }
+        }
+        newAddresses[program.count] = kept;
+        program.count = kept;
+
+        for (int i = 0; i < program.labels.size(); i++) {
+            Fragment.Symbol label = program.labels.get(i);
+            program.labels.set(i, new Fragment.Symbol(label.name, newAddresses[label.address]));
+        }
+
+        int fixups = 0;
+        for (int i = 0; i < program.fixupCount; i++) {
+            if (removed[program.fixupAddresses[i]]) continue;
+            program.fixupAddresses[fixups] = newAddresses[program.fixupAddresses[i]];
+            program.fixupSymbols[fixups] = program.fixupSymbols[i];
+            fixups++;
+        }
+        program.fixupCount = fixups;
+
+        return count;
+    }
+
+    // returns the number of the symbol each command refers to, -1 for commands that aren't fixups
+    static int[] symbolAt(Fragment program) {
+        int[] symbols = new int[program.count];
+        Arrays.fill(symbols, -1);
+        for (int i = 0; i < program.fixupCount; i++) {
+            symbols[program.fixupAddresses[i]] = program.fixupSymbols[i];
+        }
+        return symbols;
+    }
+
+    // returns the index in the fixup list of each command, -1 for commands that aren't fixups
+    static int[] fixupAt(Fragment program) {
+        int[] fixups = new int[program.count];
+        Arrays.fill(fixups, -1);
+        for (int i = 0; i < program.fixupCount; i++) {
+            fixups[program.fixupAddresses[i]] = i;
+        }
+        return fixups;
+    }
+
+    // returns the address each symbol refers to if it's a label, -1 otherwise
+    // a label defined more than once refers to its last definition
+    static int[] labelAddresses(Fragment program) {
+        SymbolTable labels = SymbolTable.empty();
+        for (Fragment.Symbol label : program.labels) {
+            labels.addEntry(label.name, label.address);
+        }
+
+        int[] addresses = new int[program.symbols.size()];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = labels.getAddress(program.symbols.get(i));
+        }
+        return addresses;
+    }
+
+    // returns whether a label refers to each address, up to and including the address just past the last command
+    static boolean[] labelled(Fragment program) {
+        boolean[] labelled = new boolean[program.count + 1];
+        for (Fragment.Symbol label : program.labels) {
+            labelled[label.address] = true;
+        }
+        return labelled;
+    }
+
+    // returns the number of a symbol in the program, -1 if no command refers to it
+    private static int symbolNumber(Fragment program, String symbol) {
+        return program.symbols.indexOf(symbol);
+    }
+
+    static boolean isAInstruction(int code) {
+        return (code & 0x8000) == 0;
+    }
+
+    static int dest(int code) {
+        return code >> 3 & 7;
+    }
+
+    static int jump(int code) {
+        return code & 7;
+    }
+
+    // encodes a C-instruction from its mnemonics
+    static int instruction(String dest, String comp, String jump) {
+        return Code.cInstruction(Code.compBits(comp.toCharArray(), 0, comp.length()),
+                Code.destBits(dest.toCharArray(), 0, dest.length()),
+                Code.jumpBits(jump.toCharArray(), 0, jump.length()));
+    }
+}
@@ -0,0 +1,179 @@
+package Assembler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An assembled program held in memory: its machine code as 16-bit words indexed by ROM address, and its labels with
+ * their addresses. Returned by Assembler.assembleProgram(), so that tools running, rewriting or disassembling a program
+ * can get at its instructions without writing them out as text and parsing them back. A program can also be read from a
+ * .hack or .hackbin file, which don't hold any labels, and written to either format.
+ */
+public class Program {
+
+    private final short[] words; // the instruction at each address
+    private final String[] labelNames; // sorted by address
+    private final int[] labelAddresses; // address of each label, in ascending order
+
+    public Program(short[] words, String[] labelNames, int[] labelAddresses) {
+        this.words = words;
+        this.labelNames = labelNames;
+        this.labelAddresses = labelAddresses;
+    }
+
+    // builds the image of a program whose symbols have been resolved into the symbol table
+    static Program of(Fragment program, SymbolTable symTable) {
+        short[] words = new short[program.count];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = (short) program.codes[i];
+        }
+
+        List<Fragment.Symbol> labels = program.resolvedLabels(symTable);
+        String[] names = new String[labels.size()];
+        int[] addresses = new int[labels.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = labels.get(i).name;
+            addresses[i] = labels.get(i).address;
+        }
+
+        return new Program(words, names, addresses);
+    }
+
+    // returns the number of instructions in the program
+    public int size() {
+        return words.length;
+    }
+
+    // returns the instruction at the given address, between 0 and 65535
+    public int instruction(int address) {
+        return words[address] & 0xFFFF;
+    }
+
+    // returns a copy of the instructions, e.g. to load them into a ROM array
+    public short[] words() {
+        return words.clone();
+    }
+
+    public int labelCount() {
+        return labelNames.length;
+    }
+
+    // returns the name of the i-th label in address order
+    public String labelName(int i) {
+        return labelNames[i];
+    }
+
+    // returns the address of the i-th label in address order
+    public int labelAddress(int i) {
+        return labelAddresses[i];
+    }
+
+    // returns the address of the label with the given name, -1 if there's none
+    public int addressOf(String label) {
+        for (int i = 0; i < labelNames.length; i++) {
+            if (labelNames[i].equals(label)) return labelAddresses[i];
+        }
+        return -1;
+    }
+
+    // returns the name of the last label at or before the given address, null if there's none
+    public String labelAt(int address) {
+        int i = SourceMap.lastAtOrBefore(labelAddresses, address);
+        return i < 0 ? null : labelNames[i];
+    }
+
+    // returns the same instructions with the labels of a source map, e.g. for a program read from a .hack file
+    public Program withLabels(SourceMap map) {
+        String[] names = new String[map.labelCount()];
+        int[] addresses = new int[map.labelCount()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = map.labelName(i);
+            addresses[i] = map.labelAddress(i);
+        }
+        return new Program(words, names, addresses);
+    }
+
+    // writes the instructions as text, like a .hack file, or packed like a .hackbin file (see HackWriter.java)
+    public void write(OutputStream out, boolean binary) throws IOException {
+        int[] instructions = new int[words.length];
+        for (int i = 0; i < instructions.length; i++) {
+            instructions[i] = words[i] & 0xFFFF;
+        }
+
+        if (binary) {
+            new HackWriter().writeBinary(instructions, instructions.length, Channels.newChannel(out));
+        } else {
+            new HackWriter().writeText(instructions, instructions.length, false, out);
+        }
+    }
+
+    // reads the instructions of a .hack file, or of a .hackbin file, told apart by the latter's header
+    // the stream isn't closed
+    public static Program read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1 << 16];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, read);
+        }
+        return read(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    // reads the instructions of a .hack or .hackbin file held in the buffer, from its position to its limit
+    public static Program read(ByteBuffer in) throws IOException {
+        if (in.remaining() >= HackWriter.BINARY_HEADER_SIZE && in.getInt(in.position()) == HackWriter.BINARY_MAGIC) {
+            return readBinary(in.slice());
+        }
+        return readText(in.slice());
+    }
+
+    private static Program readBinary(ByteBuffer in) throws IOException {
+        in.getInt(); // magic
+        if (in.getShort() != HackWriter.BINARY_VERSION) throw new IOException("Unsupported .hackbin version");
+        in.getShort();
+        int count = in.getInt();
+        if (count < 0 || in.remaining() < 2L * count) throw new IOException("Truncated .hackbin file");
+
+        short[] words = new short[count];
+        in.asShortBuffer().get(words);
+        return new Program(words, new String[0], new int[0]);
+    }
+
+    // reads lines of 16 binary digits, ignoring blank lines and the spaces around the digits
+    private static Program readText(ByteBuffer in) throws IOException {
+        short[] words = new short[1024];
+        int count = 0;
+        int line = 1;
+        int word = 0;
+        int digits = 0;
+
+        while (true) {
+            int b = in.hasRemaining() ? in.get() : '\n';
+            if (b == '\n') {
+                if (digits == 16) {
+                    if (count == words.length) words = Arrays.copyOf(words, count * 2);
+                    words[count++] = (short) word;
+                } else if (digits != 0) {
+                    throw new IOException("Not a .hack file: line " + line + " doesn't hold 16 binary digits");
+                }
+                if (!in.hasRemaining()) break;
+                line++;
+                word = 0;
+                digits = 0;
+            } else if (b == '0' || b == '1') {
+                word = word << 1 | (b - '0');
+                digits++;
+            } else if (b != ' ' && b != '\t' && b != '\r') {
+                throw new IOException("Not a .hack file: line " + line + " doesn't hold 16 binary digits");
+            }
+        }
+
+        return new Program(Arrays.copyOf(words, count), new String[0], new int[0]);
+    }
+}
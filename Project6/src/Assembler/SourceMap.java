@@ -0,0 +1,146 @@
+package Assembler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Links the addresses of an assembled program back to its source: the line of the .asm file each command comes from,
+ * and the labels of the program with their addresses. Written next to the .hack file by Assembler.java, so that tools
+ * running the program can report where time is spent without parsing the .asm file again.
+ *
+ * A .hackmap file holds a 16-byte header followed by the lines and labels, all numbers being big-endian:
+ *
+ *   bytes 0-3    magic number, the ASCII chars "HMAP"
+ *   bytes 4-5    format version, currently 1
+ *   bytes 6-7    reserved, 0
+ *   bytes 8-11   number of commands n
+ *   bytes 12-15  number of labels m
+ *   n x 4 bytes  the source line of each command, counted from 1, in address order
+ *   m x label    the labels in address order, each as a 4-byte address, a 2-byte length and the ASCII chars of its name
+ */
+public class SourceMap {
+
+    private static final int MAGIC = 'H' << 24 | 'M' << 16 | 'A' << 8 | 'P';
+    private static final short VERSION = 1;
+
+    private final int[] lines; // source line of each command
+    private final String[] labelNames; // sorted by address
+    private final int[] labelAddresses; // address of each label, in ascending order
+
+    public SourceMap(int[] lines, String[] labelNames, int[] labelAddresses) {
+        this.lines = lines;
+        this.labelNames = labelNames;
+        this.labelAddresses = labelAddresses;
+    }
+
+    // builds the map of a program whose symbols have been resolved into the symbol table
+    static SourceMap of(Fragment program, SymbolTable symTable) {
+        List<Fragment.Symbol> labels = program.resolvedLabels(symTable);
+        String[] names = new String[labels.size()];
+        int[] addresses = new int[labels.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = labels.get(i).name;
+            addresses[i] = labels.get(i).address;
+        }
+
+        return new SourceMap(Arrays.copyOf(program.lines, program.count), names, addresses);
+    }
+
+    // returns the number of commands in the program
+    public int size() {
+        return lines.length;
+    }
+
+    // returns the source line of the command at the given address, counted from 1
+    public int lineOf(int address) {
+        return lines[address];
+    }
+
+    public int labelCount() {
+        return labelNames.length;
+    }
+
+    // returns the name of the i-th label in address order
+    public String labelName(int i) {
+        return labelNames[i];
+    }
+
+    // returns the address of the i-th label in address order
+    public int labelAddress(int i) {
+        return labelAddresses[i];
+    }
+
+    // returns the index of the last label at or before the given address, -1 if there's none
+    public int labelIndexAt(int address) {
+        return lastAtOrBefore(labelAddresses, address);
+    }
+
+    // returns the index of the last of the ascending addresses that is at or before the given one, -1 if there's none
+    static int lastAtOrBefore(int[] addresses, int address) {
+        int low = 0;
+        int high = addresses.length - 1;
+        while (low <= high) { // find the first address past the given one
+            int middle = (low + high) >>> 1;
+            if (addresses[middle] <= address) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low - 1;
+    }
+
+    // returns the name of the last label at or before the given address, null if there's none
+    public String labelAt(int address) {
+        int i = labelIndexAt(address);
+        return i < 0 ? null : labelNames[i];
+    }
+
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        data.writeShort(0);
+        data.writeInt(lines.length);
+        data.writeInt(labelNames.length);
+
+        for (int line : lines) {
+            data.writeInt(line);
+        }
+
+        for (int i = 0; i < labelNames.length; i++) {
+            byte[] name = labelNames[i].getBytes(StandardCharsets.ISO_8859_1);
+            data.writeInt(labelAddresses[i]);
+            data.writeShort(name.length);
+            data.write(name);
+        }
+
+        data.flush();
+    }
+
+    public static SourceMap read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) throw new IOException("Not a source map");
+        if (data.readShort() != VERSION) throw new IOException("Unsupported source map version");
+        data.readShort();
+
+        int[] lines = new int[data.readInt()];
+        String[] names = new String[data.readInt()];
+        int[] addresses = new int[names.length];
+
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = data.readInt();
+        }
+
+        for (int i = 0; i < names.length; i++) {
+            addresses[i] = data.readInt();
+            byte[] name = new byte[data.readUnsignedShort()];
+            data.readFully(name);
+            names[i] = new String(name, StandardCharsets.ISO_8859_1);
+        }
+
+        return new SourceMap(lines, names, addresses);
+    }
+}
@@ -1,61 +1,211 @@
 package Assembler;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
 /**
  * Resolves symbols into actual memory addresses. Used in Assembler.java.
+ *
+ * Symbols are kept in an open-addressed hash table of primitive arrays, and can be looked up straight from the chars
+ * of a command, so that no String or Integer needs to be created to resolve an A-command.
  */
 
 public class SymbolTable {
 
-    private HashMap<String, Integer> table;
+    private static final int INITIAL_CAPACITY = 64; // a power of 2, at least twice the number of predefined symbols
+
+    private char[][] keys; // the symbol in each slot, null if the slot is free
+    private int[] hashes; // the hash of the symbol in each slot
+    private int[] values; // the address of the symbol in each slot
+    private int size; // number of symbols in the table
     private int currAddress = 16; // the next available memory address
 
     // load the predefined symbols
     public SymbolTable() {
-        table = new HashMap<>();
-        table.put("SP", 0);
-        table.put("LCL", 1);
-        table.put("ARG", 2);
-        table.put("THIS", 3);
-        table.put("THAT", 4);
-        table.put("R0", 0);
-        table.put("R1", 1);
-        table.put("R2", 2);
-        table.put("R3", 3);
-        table.put("R4", 4);
-        table.put("R5", 5);
-        table.put("R6", 6);
-        table.put("R7", 7);
-        table.put("R8", 8);
-        table.put("R9", 9);
-        table.put("R10", 10);
-        table.put("R11", 11);
-        table.put("R12", 12);
-        table.put("R13", 13);
-        table.put("R14", 14);
-        table.put("R15", 15);
-        table.put("SCREEN", 16384);
-        table.put("KBD", 24576);
+        this(INITIAL_CAPACITY);
+        addPredefinedSymbols();
+    }
+
+    private SymbolTable(int capacity) {
+        keys = new char[capacity][];
+        hashes = new int[capacity];
+        values = new int[capacity];
+    }
+
+    // returns a table without the predefined symbols, e.g. to number the distinct symbols of a fragment
+    static SymbolTable empty() {
+        return new SymbolTable(INITIAL_CAPACITY);
+    }
+
+    // removes all symbols but the predefined ones, keeping the table's capacity, so it can be used for another program
+    public void reset() {
+        clear();
+        addPredefinedSymbols();
+    }
+
+    // removes all symbols, keeping the table's capacity
+    void clear() {
+        Arrays.fill(keys, null);
+        size = 0;
+        currAddress = 16;
+    }
+
+    private void addPredefinedSymbols() {
+        addEntry("SP", 0);
+        addEntry("LCL", 1);
+        addEntry("ARG", 2);
+        addEntry("THIS", 3);
+        addEntry("THAT", 4);
+        addEntry("R0", 0);
+        addEntry("R1", 1);
+        addEntry("R2", 2);
+        addEntry("R3", 3);
+        addEntry("R4", 4);
+        addEntry("R5", 5);
+        addEntry("R6", 6);
+        addEntry("R7", 7);
+        addEntry("R8", 8);
+        addEntry("R9", 9);
+        addEntry("R10", 10);
+        addEntry("R11", 11);
+        addEntry("R12", 12);
+        addEntry("R13", 13);
+        addEntry("R14", 14);
+        addEntry("R15", 15);
+        addEntry("SCREEN", 16384);
+        addEntry("KBD", 24576);
     }
 
     // maps a new symbol to its address
     public void addEntry(String symbol, int address) {
-        table.put(symbol, address);
+        char[] chars = symbol.toCharArray();
+        addEntry(chars, 0, chars.length, address);
+    }
+
+    // maps the symbol held in chars[from, to) to its address
+    public void addEntry(char[] chars, int from, int to, int address) {
+        int hash = hash(chars, from, to);
+        int slot = find(chars, from, to, hash);
+        if (keys[slot] == null) {
+            insert(slot, chars, from, to, hash, address);
+        } else {
+            values[slot] = address;
+        }
     }
 
     // checks if a symbol is already in the table
     public boolean contains(String symbol) {
-        return table.containsKey(symbol);
+        char[] chars = symbol.toCharArray();
+        return keys[find(chars, 0, chars.length, hash(chars, 0, chars.length))] != null;
     }
 
-    // returns the address for a symbol in the table, or null if there's no mapping
+    // returns the address for a symbol in the table, or -1 if there's no mapping
     public int getAddress(String symbol) {
-        return table.get(symbol);
+        char[] chars = symbol.toCharArray();
+        int slot = find(chars, 0, chars.length, hash(chars, 0, chars.length));
+        return keys[slot] == null ? -1 : values[slot];
     }
 
     // return the next available memory address and increment
     public int getNextAddAndIncrement() {
         return currAddress++;
     }
+
+    // returns the address of a symbol, allocating the next available memory address if it's a new variable
+    public int lookupOrAllocate(String symbol) {
+        char[] chars = symbol.toCharArray();
+        return lookupOrAllocate(chars, 0, chars.length);
+    }
+
+    // returns the address of the symbol held in chars[from, to), allocating the next available memory address if it's a
+    // new variable, with a single probe sequence
+    public int lookupOrAllocate(char[] chars, int from, int to) {
+        int hash = hash(chars, from, to);
+        int slot = find(chars, from, to, hash);
+        if (keys[slot] == null) {
+            return insert(slot, chars, from, to, hash, getNextAddAndIncrement());
+        }
+        return values[slot];
+    }
+
+    // returns the value of the symbol held in chars[from, to), first mapping it to the given value if it's not there
+    int putIfAbsent(char[] chars, int from, int to, int value) {
+        int hash = hash(chars, from, to);
+        int slot = find(chars, from, to, hash);
+        if (keys[slot] == null) {
+            return insert(slot, chars, from, to, hash, value);
+        }
+        return values[slot];
+    }
+
+    // returns the number of symbols in the table
+    public int size() {
+        return size;
+    }
+
+    // returns the number of variables allocated since the table was created or reset
+    public int variableCount() {
+        return currAddress - 16;
+    }
+
+    // returns the slot holding the symbol in chars[from, to), or the free slot where it belongs if it's not there
+    private int find(char[] chars, int from, int to, int hash) {
+        int mask = keys.length - 1;
+        int slot = hash & mask;
+        while (keys[slot] != null && (hashes[slot] != hash || !equals(keys[slot], chars, from, to))) {
+            slot = (slot + 1) & mask; // linear probing
+        }
+        return slot;
+    }
+
+    // stores a new symbol in a free slot, growing the table if it becomes half full, and returns its value
+    private int insert(int slot, char[] chars, int from, int to, int hash, int value) {
+        char[] key = new char[to - from];
+        System.arraycopy(chars, from, key, 0, key.length);
+        keys[slot] = key;
+        hashes[slot] = hash;
+        values[slot] = value;
+
+        if (++size * 2 > keys.length) grow();
+        return value;
+    }
+
+    // doubles the capacity of the table
+    private void grow() {
+        char[][] oldKeys = keys;
+        int[] oldHashes = hashes;
+        int[] oldValues = values;
+
+        keys = new char[oldKeys.length * 2][];
+        hashes = new int[keys.length];
+        values = new int[keys.length];
+
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null) continue;
+            int slot = oldHashes[i] & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            hashes[slot] = oldHashes[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    // hashes chars[from, to) like String.hashCode(), spreading the high bits into the low ones used to pick a slot
+    private static int hash(char[] chars, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + chars[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equals(char[] key, char[] chars, int from, int to) {
+        if (key.length != to - from) return false;
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != chars[from + i]) return false;
+        }
+        return true;
+    }
 }
@@ -0,0 +1,514 @@
+package Emulator;
+
+import Assembler.Assembler;
+import Assembler.Program;
+import Assembler.SourceMap;
+import Assembler.SymbolTable;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Compilation: javac Assembler/*.java Emulator/*.java
+ * Execution: java Emulator.Emulator [--cycles=N] [--recompile] [--profile] [--capture=N] [--capture-format=png|pbm]
+ * [--set=ADDRESS=VALUE]... [--dump=FROM[-TO]]... filename
+ * Dependencies: MicroOps.java, Recompiler.java, Profiler.java, ScreenCapture.java, Assembler/Program.java,
+ * Assembler/Assembler.java, Assembler/SourceMap.java, Assembler/SymbolTable.java
+ *
+ * Runs a Hack program without a GUI: the machine code of a .hack or .hackbin file, or of a .asm file assembled first, is
+ * loaded into ROM and executed as the Hack computer of Project5 would, until the program halts or --cycles=N
+ * instructions have been executed. RAM can be set before the program starts, e.g. --set=R0=6, as can the key held
+ * down, e.g. --set=KBD=32 for the space bar, and RAM printed once the program is done, e.g. --dump=R2 or
+ * --dump=16384-16415.
+ *
+ * The CPU follows CPU.hdl: the ALU computes from its zx, nx, zy, ny, f and no bits, so instructions without a comp
+ * mnemonic still run, M is read and written at the address held by A before the instruction, and a jump goes to that
+ * same address. Memory follows Memory.hdl: RAM below SCREEN, the screen memory map up to KBD, and the keyboard at KBD
+ * and every address above it, where writes are ignored.
+ *
+ * Each instruction is decoded once, when the program is loaded, into a micro-op (see MicroOps.java) telling which of
+ * the ALU's functions to compute, where to write the result and when to jump, so that executing it is a single switch.
+ *
+ * With --recompile, a block of code between jumps and labels which the program enters HOT_BLOCK times is compiled into
+ * a JVM class along with the blocks it leads to (see Recompiler.java), which then runs in place of the interpreter
+ * until the program leaves those blocks, the compiled code of the next one, if any, being called right away.
+ *
+ * With --profile, the instructions executed at each address are counted, then summed by label and by VM function (see
+ * Profiler.java), and written as folded stacks into a .folded file next to the program. The labels are those of the
+ * .asm file, or of the .hackmap file next to a .hack file, if any. Profiling runs the interpreter, even with
+ * --recompile, since compiled code doesn't count.
+ *
+ * With --capture=N, the screen is written into numbered image files next to the program every N instructions, if it
+ * has changed (see ScreenCapture.java): the screen words written are tracked as the program runs, one bit each, so
+ * that a frame only redraws those.
+ *
+ * A program halts by looping on itself, e.g. (END) @END 0;JMP, which is noticed so that running it stops there.
+ */
+public class Emulator {
+
+    public static final int ROM_SIZE = Assembler.ROM_SIZE;
+    public static final int RAM_SIZE = 32768; // every address A can hold, up to those above KBD
+    public static final int SCREEN = new SymbolTable().getAddress("SCREEN");
+    public static final int KBD = new SymbolTable().getAddress("KBD");
+    public static final int SCREEN_WORDS = KBD - SCREEN;
+
+    static final int HOT_BLOCK = 1000; // times a block is entered before it's compiled
+    private static final int NOT_COMPILED = Integer.MIN_VALUE; // heat of a block which can't be compiled
+
+    private final int[] rom = new int[ROM_SIZE]; // the program, followed by zeros
+    private final int[] ops = new int[ROM_SIZE]; // the micro-op of each instruction of ROM
+    private final short[] ram = new short[RAM_SIZE]; // the keyboard's value is kept at KBD and every address above
+    private int a; // the A-register, sign-extended from 16 bits like D
+    private int d; // the D-register
+    private int pc; // address of the next instruction
+    private long cycles; // instructions executed since the program was loaded
+    private boolean halted; // whether the program has reached a loop on itself
+
+    private boolean recompiling; // whether hot blocks are compiled
+    private Recompiler recompiler; // the code compiled for the program loaded
+    private final int[] heat = new int[ROM_SIZE]; // times the interpreter has entered the block at each address
+    private final int[] registers = new int[3]; // A, D and a number of instructions, passed to compiled code
+    private long[] profile; // instructions executed at each address, null unless profiling
+    private long[] dirty; // one bit per screen word, set when it's written, null unless tracking the screen
+
+    public static void main(String[] args) {
+        long maxCycles = Long.MAX_VALUE;
+        boolean recompile = false;
+        boolean profile = false;
+        long captureEvery = 0; // instructions between frames, 0 for no capture
+        String captureFormat = "png";
+        ArrayList<int[]> sets = new ArrayList<>(); // address and value of each --set
+        ArrayList<int[]> dumps = new ArrayList<>(); // first and last address of each --dump
+        String filename = null;
+
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("--cycles=")) {
+                    maxCycles = Long.parseLong(arg.substring("--cycles=".length()));
+                } else if (arg.equals("--recompile")) {
+                    recompile = true;
+                } else if (arg.equals("--profile")) {
+                    profile = true;
+                } else if (arg.startsWith("--capture=")) {
+                    captureEvery = Long.parseLong(arg.substring("--capture=".length()));
+                    if (captureEvery <= 0) printCommandLineErrorAndExit();
+                } else if (arg.startsWith("--capture-format=")) {
+                    captureFormat = arg.substring("--capture-format=".length());
+                } else if (arg.startsWith("--set=")) {
+                    String[] set = arg.substring("--set=".length()).split("=");
+                    sets.add(new int[]{address(set[0]), Integer.parseInt(set[1])});
+                } else if (arg.startsWith("--dump=")) {
+                    String[] range = arg.substring("--dump=".length()).split("-");
+                    dumps.add(new int[]{address(range[0]), address(range[range.length - 1])});
+                } else if (arg.startsWith("--") || filename != null) {
+                    printCommandLineErrorAndExit();
+                } else {
+                    filename = arg;
+                }
+            }
+        } catch (RuntimeException e) { // a number or symbol that can't be read
+            printCommandLineErrorAndExit();
+        }
+        if (filename == null) printCommandLineErrorAndExit();
+
+        int extension = filename.lastIndexOf('.');
+        String baseName = extension > 0 ? filename.substring(0, extension) : filename;
+        Program program = null;
+        Emulator emulator = null;
+        ScreenCapture capture = null;
+        try {
+            program = load(filename);
+            emulator = new Emulator(program);
+            if (captureEvery > 0) capture = new ScreenCapture(emulator, baseName, captureFormat);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+
+        emulator.setRecompiling(recompile);
+        emulator.setProfiling(profile);
+        for (int[] set : sets) {
+            if ((set[0] & 0x7FFF) >= KBD) {
+                emulator.setKeyboard(set[1]); // the key held down while the program runs
+            } else {
+                emulator.poke(set[0], set[1]);
+            }
+        }
+
+        long start = System.nanoTime();
+        if (capture == null) {
+            emulator.run(maxCycles);
+        } else {
+            try {
+                while (!emulator.isHalted() && emulator.getCycles() < maxCycles) {
+                    emulator.run(Math.min(captureEvery, maxCycles - emulator.getCycles()));
+                    capture.capture();
+                }
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+                System.exit(1);
+            }
+        }
+        long time = System.nanoTime() - start;
+
+        System.out.printf("%s after %d cycles in %.1f ms, %.1f million instructions/s%n",
+                emulator.isHalted() ? "halted" : "stopped", emulator.getCycles(), time / 1e6,
+                emulator.getCycles() / (time / 1e3));
+        if (capture != null) {
+            System.out.printf("%d frames written to %s-*.%s%n", capture.getFrames(), baseName, captureFormat);
+        }
+        for (int[] dump : dumps) {
+            for (int address = dump[0]; address <= dump[1]; address++) {
+                System.out.printf("RAM[%d] = %d%n", address, emulator.peek(address));
+            }
+        }
+
+        if (profile) {
+            Profiler profiler = new Profiler(program, emulator.getProfile());
+            profiler.printTotals(System.out);
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(baseName + ".folded")))) {
+                profiler.writeFoldedStacks(out);
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+
+    // Loads the program of a .hack or .hackbin file, with the labels of the .hackmap file next to it if there's one, or
+    // assembles a .asm file.
+    public static Program load(String filename) throws IOException {
+        if (filename.endsWith(".asm")) {
+            try (FileChannel channel = FileChannel.open(Paths.get(filename))) {
+                return new Assembler().assembleProgram(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+        Program program;
+        try (FileChannel channel = FileChannel.open(Paths.get(filename))) {
+            program = Program.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        int extension = filename.lastIndexOf(".hack");
+        String map = extension < 0 ? null : filename.substring(0, extension) + ".hackmap";
+        if (map != null && Files.exists(Paths.get(map))) {
+            try (InputStream in = new FileInputStream(map)) {
+                program = program.withLabels(SourceMap.read(in));
+            }
+        }
+        return program;
+    }
+
+    public Emulator(Program program) {
+        load(program);
+    }
+
+    // loads a program into ROM, clears RAM and starts the program over
+    public void load(Program program) {
+        if (program.size() > ROM_SIZE) {
+            throw new IllegalArgumentException("The program has " + program.size() + " instructions, more than the "
+                    + ROM_SIZE + " words of ROM");
+        }
+        Arrays.fill(rom, 0);
+        for (int i = 0; i < program.size(); i++) {
+            rom[i] = program.instruction(i);
+        }
+        for (int i = 0; i < ROM_SIZE; i++) {
+            ops[i] = MicroOps.decode(rom[i]);
+        }
+        recompiler = new Recompiler(rom, program);
+        Arrays.fill(heat, 0);
+        if (profile != null) Arrays.fill(profile, 0);
+        Arrays.fill(ram, (short) 0);
+        if (dirty != null) Arrays.fill(dirty, -1L); // the whole screen is cleared
+        reset();
+    }
+
+    // starts the program over from address 0, keeping the contents of RAM, as the reset input of the CPU does
+    public void reset() {
+        pc = 0;
+        a = 0;
+        d = 0;
+        cycles = 0;
+        halted = false;
+    }
+
+    // Executes instructions until the program halts, or until maxCycles instructions have been executed. Returns the
+    // number of instructions executed.
+    public long run(long maxCycles) {
+        if (!recompiling || profile != null) return interpret(maxCycles, false);
+
+        Recompiler.Block[] blocks = recompiler.blocks;
+        long executed = 0;
+        while (executed < maxCycles && !halted) {
+            Recompiler.Block block = blocks[pc];
+            if (block != null && maxCycles - executed >= recompiler.lengths[pc]) {
+                registers[0] = a;
+                registers[1] = d;
+                registers[2] = (int) Math.min(maxCycles - executed, Integer.MAX_VALUE);
+                pc = block.run(registers, ram, dirty, pc);
+                a = registers[0];
+                d = registers[1];
+                executed += registers[2];
+                cycles += registers[2];
+            } else if (block == null && ++heat[pc] == HOT_BLOCK) {
+                if (!recompiler.compile(pc)) heat[pc] = NOT_COMPILED;
+            } else {
+                executed += interpret(maxCycles - executed, true);
+            }
+        }
+        return executed;
+    }
+
+    // Executes instructions until the program halts, or until maxCycles instructions have been executed, or after the
+    // first jump instruction if toJump is set, whether it jumps or not. Returns the number of instructions executed.
+    private long interpret(long maxCycles, boolean toJump) {
+        int[] rom = this.rom;
+        int[] ops = this.ops;
+        short[] ram = this.ram;
+        int a = this.a;
+        int d = this.d;
+        int pc = this.pc;
+        long executed = 0;
+        boolean halted = this.halted;
+        long[] profile = this.profile;
+        long[] dirty = this.dirty;
+
+        while (executed < maxCycles && !halted) {
+            int op = ops[pc];
+            executed++;
+            if (profile != null) profile[pc]++;
+
+            int address = a & 0x7FFF; // addressM
+            int out;
+            switch (op & 0x1F) {
+                case MicroOps.LOAD:
+                    a = op >>> 16;
+                    pc = pc + 1 & 0x7FFF;
+                    continue;
+                case MicroOps.ZERO:
+                    out = 0;
+                    break;
+                case MicroOps.ONE:
+                    out = 1;
+                    break;
+                case MicroOps.MINUS_ONE:
+                    out = -1;
+                    break;
+                case MicroOps.D:
+                    out = d;
+                    break;
+                case MicroOps.A:
+                    out = a;
+                    break;
+                case MicroOps.NOT_D:
+                    out = ~d;
+                    break;
+                case MicroOps.NOT_A:
+                    out = ~a;
+                    break;
+                case MicroOps.NEG_D:
+                    out = (short) -d;
+                    break;
+                case MicroOps.NEG_A:
+                    out = (short) -a;
+                    break;
+                case MicroOps.D_PLUS_ONE:
+                    out = (short) (d + 1);
+                    break;
+                case MicroOps.A_PLUS_ONE:
+                    out = (short) (a + 1);
+                    break;
+                case MicroOps.D_MINUS_ONE:
+                    out = (short) (d - 1);
+                    break;
+                case MicroOps.A_MINUS_ONE:
+                    out = (short) (a - 1);
+                    break;
+                case MicroOps.D_PLUS_A:
+                    out = (short) (d + a);
+                    break;
+                case MicroOps.D_MINUS_A:
+                    out = (short) (d - a);
+                    break;
+                case MicroOps.A_MINUS_D:
+                    out = (short) (a - d);
+                    break;
+                case MicroOps.D_AND_A:
+                    out = d & a;
+                    break;
+                case MicroOps.D_OR_A:
+                    out = d | a;
+                    break;
+                case MicroOps.M:
+                    out = ram[address];
+                    break;
+                case MicroOps.NOT_M:
+                    out = ~ram[address];
+                    break;
+                case MicroOps.NEG_M:
+                    out = (short) -ram[address];
+                    break;
+                case MicroOps.M_PLUS_ONE:
+                    out = (short) (ram[address] + 1);
+                    break;
+                case MicroOps.M_MINUS_ONE:
+                    out = (short) (ram[address] - 1);
+                    break;
+                case MicroOps.D_PLUS_M:
+                    out = (short) (d + ram[address]);
+                    break;
+                case MicroOps.D_MINUS_M:
+                    out = (short) (d - ram[address]);
+                    break;
+                case MicroOps.M_MINUS_D:
+                    out = (short) (ram[address] - d);
+                    break;
+                case MicroOps.D_AND_M:
+                    out = d & ram[address];
+                    break;
+                case MicroOps.D_OR_M:
+                    out = d | ram[address];
+                    break;
+                default: // GENERIC
+                    int instruction = op >>> 16;
+                    out = alu(instruction, d, (instruction & 0x1000) != 0 ? ram[address] : a);
+                    break;
+            }
+
+            if ((op & 0xE0) != 0) { // dest
+                if ((op & MicroOps.DEST_M << 5) != 0 && address < KBD) {
+                    ram[address] = (short) out;
+                    if (address >= SCREEN && dirty != null) dirty[address - SCREEN >> 6] |= 1L << address;
+                }
+                if ((op & MicroOps.DEST_D << 5) != 0) d = out;
+                if ((op & MicroOps.DEST_A << 5) != 0) a = out;
+            }
+
+            if ((op & 0x700) != 0 && (op >> 8 >> (out < 0 ? 2 : out == 0 ? 1 : 0) & 1) != 0) { // jump
+                // a jump without dest back to the A-instruction loading its own address loops forever
+                halted = address == pc - 1 && rom[address] == address && (op & 0xE0) == 0;
+                pc = address;
+            } else {
+                pc = pc + 1 & 0x7FFF;
+            }
+            if (toJump && (op & 0x700) != 0) break;
+        }
+
+        this.a = a;
+        this.d = d;
+        this.pc = pc;
+        this.cycles += executed;
+        this.halted = halted;
+        return executed;
+    }
+
+    // Returns the output of the ALU for the comp bits of a C-instruction, as a 16-bit value sign-extended to an int. x is
+    // the D-register, y either the A-register or M.
+    static int alu(int instruction, int x, int y) {
+        if ((instruction & 0x800) != 0) x = 0; // zx
+        if ((instruction & 0x400) != 0) x = ~x; // nx
+        if ((instruction & 0x200) != 0) y = 0; // zy
+        if ((instruction & 0x100) != 0) y = ~y; // ny
+        int out = (instruction & 0x80) != 0 ? x + y : x & y; // f
+        if ((instruction & 0x40) != 0) out = ~out; // no
+        return (short) out;
+    }
+
+    // returns the value at an address of RAM, or of the screen or keyboard memory maps
+    public int peek(int address) {
+        return ram[address & 0x7FFF];
+    }
+
+    // Writes a value at an address of RAM or of the screen memory map, as the program would. A write at KBD or above is
+    // ignored, see setKeyboard().
+    public void poke(int address, int value) {
+        address &= 0x7FFF;
+        if (address < KBD) {
+            ram[address] = (short) value;
+            if (address >= SCREEN && dirty != null) dirty[address - SCREEN >> 6] |= 1L << address;
+        }
+    }
+
+    // sets the code of the key being pressed, 0 for none
+    public void setKeyboard(int key) {
+        Arrays.fill(ram, KBD, RAM_SIZE, (short) key);
+    }
+
+    // sets whether the blocks of code which the program enters often are compiled into JVM classes
+    public void setRecompiling(boolean recompiling) {
+        this.recompiling = recompiling;
+    }
+
+    public boolean isRecompiling() {
+        return recompiling;
+    }
+
+    // sets whether the instructions executed at each address are counted, from zero
+    public void setProfiling(boolean profiling) {
+        profile = profiling ? new long[ROM_SIZE] : null;
+    }
+
+    public boolean isProfiling() {
+        return profile != null;
+    }
+
+    // returns the instructions executed at each address of ROM since profiling was set or the program loaded, null
+    // unless profiling
+    public long[] getProfile() {
+        return profile == null ? null : profile.clone();
+    }
+
+    // Sets whether the screen words written are tracked, for a ScreenCapture to redraw only those, the whole screen
+    // counting as written at first.
+    public void setScreenTracking(boolean tracking) {
+        dirty = tracking ? new long[SCREEN_WORDS / 64] : null;
+        if (tracking) Arrays.fill(dirty, -1L);
+    }
+
+    public boolean isScreenTracking() {
+        return dirty != null;
+    }
+
+    // returns the bit set of the screen words written since its bits were last cleared, null unless tracking the screen
+    long[] dirtyScreenWords() {
+        return dirty;
+    }
+
+    public int getA() {
+        return a;
+    }
+
+    public int getD() {
+        return d;
+    }
+
+    public int getPC() {
+        return pc;
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    public boolean isHalted() {
+        return halted;
+    }
+
+    // returns the address named by a predefined symbol such as R0, SCREEN or KBD, or given as a number
+    private static int address(String name) {
+        int address = new SymbolTable().getAddress(name);
+        return address >= 0 ? address : Integer.parseInt(name);
+    }
+
+    private static void printCommandLineErrorAndExit() {
+        System.err.println("usage: java Emulator.Emulator [--cycles=N] [--recompile] [--profile] [--capture=N] "
+                + "[--capture-format=png|pbm] [--set=ADDRESS=VALUE]... [--dump=FROM[-TO]]... filename.hack");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,80 @@
+package Emulator;
+
+import Assembler.Code;
+
+/**
+ * Decodes Hack instructions into micro-ops, once, when a program is loaded, so that the Emulator doesn't have to pick
+ * the fields of an instruction apart every time it's executed. Used in Emulator.java.
+ *
+ * A micro-op is an int:
+ *
+ *   bits 0-4     the operation: LOAD for an A-instruction, one of the 28 comp mnemonics of Code.java, each of which
+ *                knows whether it reads A or M, or GENERIC for comp bits without a mnemonic, which go through the ALU
+ *   bits 5-7     the dest mask, as in the instruction: A, D, M from high to low
+ *   bits 8-10    the jump condition, as in the instruction: negative, zero, positive from high to low
+ *   bits 16-31   the value loaded by LOAD, or the instruction itself for GENERIC
+ */
+class MicroOps {
+
+    // the comp mnemonics in the order of their operations, as Code.compMnemonic() gives them
+    private static final String[] FUNCTIONS = {
+            "0", "1", "-1", "D", "A", "!D", "!A", "-D", "-A", "D+1", "A+1", "D-1", "A-1", "D+A", "D-A", "A-D", "D&A", "D|A",
+            "M", "!M", "-M", "M+1", "M-1", "D+M", "D-M", "M-D", "D&M", "D|M"};
+
+    static final int ZERO = 0;
+    static final int ONE = 1;
+    static final int MINUS_ONE = 2;
+    static final int D = 3;
+    static final int A = 4;
+    static final int NOT_D = 5;
+    static final int NOT_A = 6;
+    static final int NEG_D = 7;
+    static final int NEG_A = 8;
+    static final int D_PLUS_ONE = 9;
+    static final int A_PLUS_ONE = 10;
+    static final int D_MINUS_ONE = 11;
+    static final int A_MINUS_ONE = 12;
+    static final int D_PLUS_A = 13;
+    static final int D_MINUS_A = 14;
+    static final int A_MINUS_D = 15;
+    static final int D_AND_A = 16;
+    static final int D_OR_A = 17;
+    static final int M = 18;
+    static final int NOT_M = 19;
+    static final int NEG_M = 20;
+    static final int M_PLUS_ONE = 21;
+    static final int M_MINUS_ONE = 22;
+    static final int D_PLUS_M = 23;
+    static final int D_MINUS_M = 24;
+    static final int M_MINUS_D = 25;
+    static final int D_AND_M = 26;
+    static final int D_OR_M = 27;
+    static final int GENERIC = 28;
+    static final int LOAD = 29;
+
+    static final int DEST_A = 4;
+    static final int DEST_D = 2;
+    static final int DEST_M = 1;
+
+    // operation of each of the 128 values of the comp bits (a c1..c6)
+    private static final byte[] operations = new byte[128];
+
+    static {
+        for (int comp = 0; comp < 128; comp++) {
+            operations[comp] = GENERIC;
+            String mnemonic = Code.compMnemonic(comp);
+            for (int i = 0; i < FUNCTIONS.length; i++) {
+                if (FUNCTIONS[i].equals(mnemonic)) operations[comp] = (byte) i;
+            }
+        }
+    }
+
+    // returns the micro-op of an instruction
+    static int decode(int instruction) {
+        if ((instruction & 0x8000) == 0) return instruction << 16 | LOAD;
+
+        int operation = operations[instruction >> 6 & 0x7F];
+        int op = operation | (instruction >> 3 & 7) << 5 | (instruction & 7) << 8;
+        return operation == GENERIC ? op | instruction << 16 : op;
+    }
+}
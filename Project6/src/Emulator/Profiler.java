@@ -0,0 +1,112 @@
+package Emulator;
+
+import Assembler.Program;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Sums the instructions executed at each address of a program, as counted by the Emulator, by the labels of the
+ * program. Used in Emulator.java.
+ *
+ * Each address counts for the last label at or before it, and for the last VM function at or before it: a program
+ * translated by the VMTranslator of Project8 lays each function out in one piece, starting with its (Class.function)
+ * label, which is told from the other labels of the translator, (RETURN_ADD.n) after each call and (File.TRUEn) and
+ * (File.CONTINUEn) in each comparison, by its name. The counts are also written as the folded stacks read by
+ * flamegraph.pl, one line per function and label within it, e.g. "Main.main;WHILE_EXP0 1234". The counts don't tell
+ * which function called which, so a stack is one function deep, its label being the frame above it.
+ */
+public class Profiler {
+
+    private static final Pattern NOT_FUNCTION = Pattern.compile("RETURN_ADD\\.\\d+|.*\\.(TRUE|CONTINUE)\\d+");
+    private static final String START = "(start)"; // frame of the code before the first label or function
+
+    private final long total; // instructions executed
+    private final Map<String, Long> functions = new LinkedHashMap<>(); // instructions in each function
+    private final Map<String, Long> labels = new LinkedHashMap<>(); // instructions after each label
+    private final Map<String, Long> stacks = new LinkedHashMap<>(); // instructions in each folded stack
+
+    public Profiler(Program program, long[] counts) {
+        long total = 0;
+        String function = null; // the function at the current address
+        String label = null; // the last label at or before the current address
+        String inner = null; // the last label at or before the current address within the function, if any
+        int next = 0; // index of the next label of the program
+        for (int address = 0; address < counts.length; address++) {
+            while (next < program.labelCount() && program.labelAddress(next) <= address) {
+                label = program.labelName(next++);
+                if (isFunction(label)) {
+                    function = label;
+                    inner = null;
+                } else {
+                    inner = label;
+                }
+            }
+            if (counts[address] == 0) continue;
+
+            total += counts[address];
+            add(labels, label == null ? START : label, counts[address]);
+            if (function != null) add(functions, function, counts[address]);
+            String stack = function == null ? (label == null ? START : label)
+                    : inner == null ? function : function + ";" + inner;
+            add(stacks, stack, counts[address]);
+        }
+        this.total = total;
+    }
+
+    // returns whether a label starts a VM function
+    static boolean isFunction(String label) {
+        return label.indexOf('.') > 0 && !NOT_FUNCTION.matcher(label).matches();
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    // returns the instructions executed in each VM function, in address order, the functions never run left out
+    public Map<String, Long> functionTotals() {
+        return Collections.unmodifiableMap(functions);
+    }
+
+    // returns the instructions executed after each label up to the next one, in address order, those never run left out
+    public Map<String, Long> labelTotals() {
+        return Collections.unmodifiableMap(labels);
+    }
+
+    // returns the instructions executed in each folded stack, i.e. a function or label, or a label within a function
+    public Map<String, Long> foldedStacks() {
+        return Collections.unmodifiableMap(stacks);
+    }
+
+    // prints the totals of the functions, if the program has any, then those of the labels, the largest first
+    public void printTotals(PrintStream out) {
+        if (!functions.isEmpty()) printTable("function", functions, out);
+        printTable("label", labels, out);
+    }
+
+    // writes the folded stacks, one per line followed by its count, as flamegraph.pl reads them
+    public void writeFoldedStacks(PrintWriter out) {
+        for (Map.Entry<String, Long> stack : stacks.entrySet()) {
+            out.println(stack.getKey() + " " + stack.getValue());
+        }
+        out.flush();
+    }
+
+    private void printTable(String heading, Map<String, Long> totals, PrintStream out) {
+        ArrayList<Map.Entry<String, Long>> rows = new ArrayList<>(totals.entrySet());
+        rows.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        out.printf("%14s %7s  %s%n", "instructions", "%", heading);
+        for (Map.Entry<String, Long> row : rows) {
+            out.printf("%14d %6.2f%%  %s%n", row.getValue(), 100.0 * row.getValue() / total, row.getKey());
+        }
+    }
+
+    private static void add(Map<String, Long> totals, String key, long count) {
+        totals.merge(key, count, Long::sum);
+    }
+}
@@ -0,0 +1,705 @@
+package Emulator;
+
+import Assembler.Program;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/**
+ * Compiles the code of a Hack program into JVM classes, so that the JIT compiler of the JVM optimizes the Hack code
+ * itself instead of the loop interpreting it. Used in Emulator.java.
+ *
+ * The program is split into basic blocks: a block starts where the emulator enters it, and runs up to and including
+ * the next jump, or up to the next label of the program, whichever comes first. Once a block is hot, it's compiled
+ * along with the blocks it leads to, as far as their addresses are known from the code, i.e. from the A-command before
+ * each jump: this region of the program becomes the run() method of a hidden class implementing Block. run() holds A
+ * and D in local variables and computes each instruction with the JVM's own arithmetic, and the blocks of the region
+ * are chained by plain branches, so that a loop of the program is a loop of the method. A jump to an address computed
+ * at run time goes through a switch over the blocks of the region, and run() returns when the program leaves the
+ * region.
+ *
+ * The JDK in use has no API to write class files, so they are written here by hand: every branch target has the same
+ * stack map frame, all locals being set from the start, which keeps the StackMapTable to a list of offsets.
+ */
+class Recompiler {
+
+    // Bytes of code of a run() method: HotSpot doesn't JIT-compile methods of more than 8000 bytes (HugeMethodLimit),
+    // whose code the JVM would then interpret, far slower than the emulator, so the blocks of a region are added while
+    // the code stays within this size. Branches then always fit in their 16-bit offsets.
+    static final int MAX_METHOD_SIZE = 8000;
+    static final int MAX_BLOCK_LENGTH = 128; // instructions of a block, of up to 39 bytes of code each, e.g. AMD=!M
+
+    private static final int BLOCK_OVERHEAD = 64; // bytes of code around a block's instructions, at most
+    private static final int METHOD_OVERHEAD = 128; // bytes of code of run() outside the blocks, at most
+
+    private static final String CLASS_NAME = "Emulator/RecompiledRegion";
+    private static final String BLOCK = "Emulator/Recompiler$Block";
+    private static final String RECOMPILER = "Emulator/Recompiler";
+
+    // JVM opcodes used
+    private static final int ICONST_M1 = 0x02;
+    private static final int ICONST_0 = 0x03;
+    private static final int ICONST_1 = 0x04;
+    private static final int ICONST_2 = 0x05;
+    private static final int SIPUSH = 0x11;
+    private static final int ILOAD = 0x15;
+    private static final int ISTORE = 0x36;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int ALOAD_3 = 0x2d;
+    private static final int IALOAD = 0x2e;
+    private static final int SALOAD = 0x35;
+    private static final int IASTORE = 0x4f;
+    private static final int IADD = 0x60;
+    private static final int ISUB = 0x64;
+    private static final int INEG = 0x74;
+    private static final int IAND = 0x7e;
+    private static final int IOR = 0x80;
+    private static final int IXOR = 0x82;
+    private static final int I2S = 0x93;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int IFLT = 0x9b;
+    private static final int IFGE = 0x9c;
+    private static final int IFGT = 0x9d;
+    private static final int IFLE = 0x9e;
+    private static final int IF_ICMPLT = 0xa1;
+    private static final int GOTO = 0xa7;
+    private static final int LOOKUPSWITCH = 0xab;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+
+    // branch of each jump condition of a C-instruction, taken on the ALU's output
+    private static final int[] BRANCHES = {0, IFGT, IFEQ, IFGE, IFLT, IFNE, IFLE, GOTO};
+
+    // local variables of run()
+    private static final int REGISTERS = 1; // int[] holding A, D and the number of instructions which may run
+    private static final int RAM = 2;
+    private static final int DIRTY = 3; // the bit set of the screen words written, or null
+    private static final int NEXT = 4; // address of the next block, the argument pc on entry
+    private static final int A = 5;
+    private static final int D = 6;
+    private static final int OUT = 7; // output of the ALU for the current instruction
+    private static final int ADDRESS = 8; // the address held by A before the current instruction
+    private static final int REMAINING = 9; // instructions which may still run
+    private static final int ALLOWED = 10; // instructions which may run, on entry
+    private static final int LOCALS = 11;
+
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    final Block[] blocks; // the compiled code entered at each address, if any
+    final int[] lengths; // instructions of the block at each address with compiled code
+
+    private final int[] rom;
+    private final boolean[] leaders; // whether a label of the program refers to each address
+
+    // a compiled region of the program
+    interface Block {
+        // Runs the program from the block at pc, which must be in the region, with A and D held in registers[0] and
+        // registers[1], until it leaves the region or the next block would take it over registers[2] instructions.
+        // Returns the address of the next instruction, registers[2] being set to the number of instructions run. The
+        // screen words written are set in dirty, unless it's null (see Emulator.java).
+        int run(int[] registers, short[] ram, long[] dirty, int pc);
+    }
+
+    Recompiler(int[] rom, Program program) {
+        this.rom = rom;
+        blocks = new Block[rom.length];
+        lengths = new int[rom.length];
+        leaders = new boolean[rom.length];
+        for (int i = 0; i < program.labelCount(); i++) {
+            if (program.labelAddress(i) < rom.length) leaders[program.labelAddress(i)] = true;
+        }
+    }
+
+    // Compiles the region of the program entered at an address, and returns whether it could be compiled: a block
+    // ending in a loop on itself is left to the interpreter, which notices that the program halts, as is code which the
+    // JVM won't load. The blocks of the region which have no compiled code yet get this region's.
+    boolean compile(int entry) {
+        if (halts(entry)) return false;
+
+        // find the blocks of the region, as many as fit in a method which the JIT compiler compiles
+        TreeMap<Integer, Integer> region = new TreeMap<>(); // length of each block, by address
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        pending.add(entry);
+        int size = METHOD_OVERHEAD; // bytes of code of run(), at most
+        while (!pending.isEmpty()) {
+            int start = pending.remove();
+            if (region.containsKey(start) || halts(start)) continue;
+            int length = blockLength(start);
+            int blockSize = codeSize(start, length) + BLOCK_OVERHEAD;
+            if (size + blockSize > MAX_METHOD_SIZE) continue;
+            region.put(start, length);
+            size += blockSize;
+
+            int last = start + length - 1;
+            if (isJump(rom[last]) && target(start, last) >= 0) pending.add(target(start, last));
+            if ((rom[last] & 0x8007) != 0x8007) pending.add(last + 1 & 0x7FFF); // unless it always jumps
+        }
+
+        Block block;
+        try {
+            MethodHandles.Lookup hidden = lookup.defineHiddenClass(classFile(region), true);
+            block = (Block) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            return false; // the JVM rejected the class, the block is left to the interpreter
+        }
+        for (int start : region.keySet()) {
+            if (blocks[start] == null) {
+                blocks[start] = block;
+                lengths[start] = region.get(start);
+            }
+        }
+        return true;
+    }
+
+    // called by compiled code to write M, a write at KBD or above being ignored
+    static void write(short[] ram, long[] dirty, int address, int value) {
+        if (address < Emulator.KBD) {
+            ram[address] = (short) value;
+            if (address >= Emulator.SCREEN && dirty != null) dirty[address - Emulator.SCREEN >> 6] |= 1L << address;
+        }
+    }
+
+    // returns the number of instructions of the block entered at an address
+    private int blockLength(int start) {
+        int end = start;
+        while (end < rom.length && end - start < MAX_BLOCK_LENGTH && (end == start || !leaders[end])) {
+            if (isJump(rom[end++])) break;
+        }
+        return end - start;
+    }
+
+    // returns the bytes of code of the instructions of a block, as compiled in classFile()
+    private int codeSize(int start, int length) {
+        Bytecode code = new Bytecode();
+        for (int pc = start; pc < start + length; pc++) {
+            instruction(code, rom[pc], 0, 0);
+        }
+        return code.size;
+    }
+
+    // returns whether the block at an address ends with a jump without dest back to the A-command right before it
+    private boolean halts(int start) {
+        int last = start + blockLength(start) - 1;
+        return isJump(rom[last]) && last > 0 && (rom[last] & 0x38) == 0 && rom[last - 1] == last - 1;
+    }
+
+    // returns the target of the jump ending a block if it's loaded by the A-command before it, or else -1
+    private int target(int start, int last) {
+        return last > start && (rom[last - 1] & 0x8000) == 0 ? rom[last - 1] : -1;
+    }
+
+    private static boolean isJump(int instruction) {
+        return (instruction & 0x8000) != 0 && (instruction & 7) != 0;
+    }
+
+    // returns the bytes of a class implementing Block for the blocks of a region
+    private byte[] classFile(TreeMap<Integer, Integer> region) {
+        ConstantPool pool = new ConstantPool();
+        int thisClass = pool.classRef(CLASS_NAME);
+        int superClass = pool.classRef("java/lang/Object");
+        int blockInterface = pool.classRef(BLOCK);
+        int intArray = pool.classRef("[I");
+        int shortArray = pool.classRef("[S");
+        int longArray = pool.classRef("[J");
+        int objectInit = pool.methodRef("java/lang/Object", "<init>", "()V");
+        int write = pool.methodRef(RECOMPILER, "write", "([S[JII)V");
+        int alu = pool.methodRef("Emulator/Emulator", "alu", "(III)I");
+        int init = pool.utf8("<init>");
+        int voidDescriptor = pool.utf8("()V");
+        int run = pool.utf8("run");
+        int runDescriptor = pool.utf8("([I[S[JI)I");
+        int code = pool.utf8("Code");
+        int stackMapTable = pool.utf8("StackMapTable");
+
+        // the constructor
+        Bytecode constructor = new Bytecode();
+        constructor.op(ALOAD_0);
+        constructor.op(INVOKESPECIAL);
+        constructor.u2(objectInit);
+        constructor.op(RETURN);
+
+        // run()
+        Bytecode body = new Bytecode();
+        body.op(ALOAD_1);
+        body.op(ICONST_0);
+        body.op(IALOAD);
+        body.store(A);
+        body.op(ALOAD_1);
+        body.op(ICONST_1);
+        body.op(IALOAD);
+        body.store(D);
+        body.op(ALOAD_1);
+        body.op(ICONST_2);
+        body.op(IALOAD);
+        body.store(REMAINING);
+        body.load(REMAINING);
+        body.store(ALLOWED);
+        for (int local : new int[]{OUT, ADDRESS}) { // for every local to be an int in the frames
+            body.op(ICONST_0);
+            body.store(local);
+        }
+
+        HashMap<Integer, Integer> labels = new HashMap<>(); // label of each block, by address
+        HashMap<Integer, Integer> exits = new HashMap<>(); // label of the code returning NEXT, by address
+        for (int start : region.keySet()) {
+            labels.put(start, body.newLabel());
+        }
+        int exit = body.newLabel();
+
+        // enter the block at NEXT, or return if it's outside the region
+        int dispatch = body.newLabel();
+        body.place(dispatch);
+        body.load(NEXT);
+        int[] starts = region.keySet().stream().mapToInt(Integer::intValue).toArray();
+        body.lookupSwitch(starts, Arrays.stream(starts).map(labels::get).toArray(), exit);
+
+        for (int start : starts) {
+            int length = region.get(start);
+            body.place(labels.get(start));
+            body.load(REMAINING);
+            body.push(length);
+            body.branch(IF_ICMPLT, label(body, labels, exits, start, true));
+            body.load(REMAINING);
+            body.push(length);
+            body.op(ISUB);
+            body.store(REMAINING);
+
+            int last = start + length - 1;
+            for (int pc = start; pc <= last; pc++) {
+                instruction(body, rom[pc], alu, write);
+            }
+
+            int next = last + 1 & 0x7FFF;
+            if (isJump(rom[last])) {
+                int condition = rom[last] & 7;
+                int target = target(start, last);
+                int taken = target >= 0 ? label(body, labels, exits, target, false) : body.newLabel();
+                if (condition != 7) body.load(OUT);
+                body.branch(BRANCHES[condition], taken);
+                if (condition != 7) body.branch(GOTO, label(body, labels, exits, next, false));
+                if (target < 0) { // to the address held by A, through the switch
+                    body.place(taken);
+                    body.load(ADDRESS);
+                    body.store(NEXT);
+                    body.branch(GOTO, dispatch);
+                }
+            } else {
+                body.branch(GOTO, label(body, labels, exits, next, false));
+            }
+        }
+
+        // return NEXT, set for each address outside the region first
+        for (int address : exits.keySet()) {
+            body.place(exits.get(address));
+            body.push(address);
+            body.store(NEXT);
+            body.branch(GOTO, exit);
+        }
+        body.place(exit);
+        body.op(ALOAD_1);
+        body.op(ICONST_0);
+        body.load(A);
+        body.op(IASTORE);
+        body.op(ALOAD_1);
+        body.op(ICONST_1);
+        body.load(D);
+        body.op(IASTORE);
+        body.op(ALOAD_1);
+        body.op(ICONST_2);
+        body.load(ALLOWED);
+        body.load(REMAINING);
+        body.op(ISUB);
+        body.op(IASTORE);
+        body.load(NEXT);
+        body.op(IRETURN);
+        body.link();
+
+        // the same frame at every label: the locals, all set, and nothing on the stack
+        Bytecode frames = new Bytecode();
+        int[] offsets = body.labelOffsets();
+        frames.u2(offsets.length);
+        frames.op(255); // full_frame
+        frames.u2(offsets[0]);
+        frames.u2(LOCALS);
+        for (int type : new int[]{thisClass, intArray, shortArray, longArray}) {
+            frames.op(7); // ITEM_Object
+            frames.u2(type);
+        }
+        for (int local = NEXT; local < LOCALS; local++) {
+            frames.op(1); // ITEM_Integer
+        }
+        frames.u2(0);
+        for (int i = 1; i < offsets.length; i++) {
+            frames.op(251); // same_frame_extended
+            frames.u2(offsets[i] - offsets[i - 1] - 1);
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0); // minor version
+            out.writeShort(52); // major version, Java 8
+            pool.write(out);
+            out.writeShort(0x0031); // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1); // interfaces
+            out.writeShort(blockInterface);
+            out.writeShort(0); // fields
+            out.writeShort(2); // methods
+            writeMethod(out, init, voidDescriptor, code, 1, 1, constructor, -1, null);
+            writeMethod(out, run, runDescriptor, code, 6, LOCALS, body, stackMapTable, frames);
+            out.writeShort(0); // attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // can't happen writing to memory
+        }
+    }
+
+    // Returns the label to branch to for going on at an address: its block's, if it's in the region and the budget
+    // isn't the reason to leave, or else that of the code returning the address, made once per address.
+    private static int label(Bytecode body, HashMap<Integer, Integer> labels, HashMap<Integer, Integer> exits,
+                             int address, boolean leave) {
+        if (!leave && labels.containsKey(address)) return labels.get(address);
+        return exits.computeIfAbsent(address, k -> body.newLabel());
+    }
+
+    // compiles an instruction, but for its jump
+    private static void instruction(Bytecode body, int instruction, int alu, int write) {
+        if ((instruction & 0x8000) == 0) {
+            body.push(instruction);
+            body.store(A);
+            return;
+        }
+
+        body.load(A);
+        body.push(0x7FFF);
+        body.op(IAND);
+        body.store(ADDRESS);
+
+        compute(body, instruction, alu);
+        body.store(OUT);
+
+        if ((instruction & 0x08) != 0) { // M
+            body.op(ALOAD_2);
+            body.op(ALOAD_3);
+            body.load(ADDRESS);
+            body.load(OUT);
+            body.op(INVOKESTATIC);
+            body.u2(write);
+        }
+        if ((instruction & 0x10) != 0) { // D
+            body.load(OUT);
+            body.store(D);
+        }
+        if ((instruction & 0x20) != 0) { // A
+            body.load(OUT);
+            body.store(A);
+        }
+    }
+
+    // pushes the output of the ALU for a C-instruction, as a 16-bit value sign-extended to an int
+    private static void compute(Bytecode body, int instruction, int alu) {
+        int operation = MicroOps.decode(instruction) & 0x1F;
+        boolean m = operation >= MicroOps.M && operation <= MicroOps.D_OR_M; // whether y is M rather than A
+        switch (operation) {
+            case MicroOps.ZERO:
+                body.op(ICONST_0);
+                return;
+            case MicroOps.ONE:
+                body.op(ICONST_1);
+                return;
+            case MicroOps.MINUS_ONE:
+                body.op(ICONST_M1);
+                return;
+            case MicroOps.D:
+                body.load(D);
+                return;
+            case MicroOps.A:
+            case MicroOps.M:
+                loadY(body, m);
+                return;
+            case MicroOps.NOT_D:
+                body.load(D);
+                body.op(ICONST_M1);
+                body.op(IXOR);
+                return;
+            case MicroOps.NOT_A:
+            case MicroOps.NOT_M:
+                loadY(body, m);
+                body.op(ICONST_M1);
+                body.op(IXOR);
+                return;
+            case MicroOps.NEG_D:
+                body.load(D);
+                body.op(INEG);
+                body.op(I2S);
+                return;
+            case MicroOps.NEG_A:
+            case MicroOps.NEG_M:
+                loadY(body, m);
+                body.op(INEG);
+                body.op(I2S);
+                return;
+            case MicroOps.D_PLUS_ONE:
+            case MicroOps.D_MINUS_ONE:
+                body.load(D);
+                body.op(ICONST_1);
+                body.op(operation == MicroOps.D_PLUS_ONE ? IADD : ISUB);
+                body.op(I2S);
+                return;
+            case MicroOps.A_PLUS_ONE:
+            case MicroOps.M_PLUS_ONE:
+            case MicroOps.A_MINUS_ONE:
+            case MicroOps.M_MINUS_ONE:
+                loadY(body, m);
+                body.op(ICONST_1);
+                body.op(operation == MicroOps.A_PLUS_ONE || operation == MicroOps.M_PLUS_ONE ? IADD : ISUB);
+                body.op(I2S);
+                return;
+            case MicroOps.D_PLUS_A:
+            case MicroOps.D_PLUS_M:
+                body.load(D);
+                loadY(body, m);
+                body.op(IADD);
+                body.op(I2S);
+                return;
+            case MicroOps.D_MINUS_A:
+            case MicroOps.D_MINUS_M:
+                body.load(D);
+                loadY(body, m);
+                body.op(ISUB);
+                body.op(I2S);
+                return;
+            case MicroOps.A_MINUS_D:
+            case MicroOps.M_MINUS_D:
+                loadY(body, m);
+                body.load(D);
+                body.op(ISUB);
+                body.op(I2S);
+                return;
+            case MicroOps.D_AND_A:
+            case MicroOps.D_AND_M:
+                body.load(D);
+                loadY(body, m);
+                body.op(IAND);
+                return;
+            case MicroOps.D_OR_A:
+            case MicroOps.D_OR_M:
+                body.load(D);
+                loadY(body, m);
+                body.op(IOR);
+                return;
+            default: // GENERIC, through the bitwise ALU
+                body.push(instruction & 0x1FFF);
+                body.load(D);
+                loadY(body, (instruction & 0x1000) != 0);
+                body.op(INVOKESTATIC);
+                body.u2(alu);
+        }
+    }
+
+    // pushes the y input of the ALU: M, or else the A-register
+    private static void loadY(Bytecode body, boolean m) {
+        if (m) {
+            body.op(ALOAD_2);
+            body.load(ADDRESS);
+            body.op(SALOAD);
+        } else {
+            body.load(A);
+        }
+    }
+
+    // writes a public method, with a StackMapTable attribute unless frames is null
+    private static void writeMethod(DataOutputStream out, int name, int descriptor, int code, int maxStack,
+                                    int maxLocals, Bytecode bytecode, int stackMapTable, Bytecode frames)
+            throws IOException {
+        out.writeShort(0x0001); // ACC_PUBLIC
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1); // attributes
+        out.writeShort(code);
+        out.writeInt(12 + bytecode.size + (frames == null ? 0 : 6 + frames.size)); // length of the attribute
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(bytecode.size);
+        out.write(bytecode.bytes, 0, bytecode.size);
+        out.writeShort(0); // exception table
+        if (frames == null) {
+            out.writeShort(0); // attributes
+        } else {
+            out.writeShort(1);
+            out.writeShort(stackMapTable);
+            out.writeInt(frames.size);
+            out.write(frames.bytes, 0, frames.size);
+        }
+    }
+
+    // the code of a method, whose branches refer to labels placed before or after them
+    private static class Bytecode {
+
+        private byte[] bytes = new byte[1024];
+        private int size;
+        private final ArrayList<Integer> labels = new ArrayList<>(); // offset of each label, -1 until placed
+        private final ArrayList<int[]> branches = new ArrayList<>(); // offsets of a branch and its operand, label
+        private final ArrayList<int[]> wideBranches = new ArrayList<>(); // the same, for 4-byte operands
+
+        void op(int value) {
+            if (size == bytes.length) bytes = Arrays.copyOf(bytes, size * 2);
+            bytes[size++] = (byte) value;
+        }
+
+        void u2(int value) {
+            op(value >> 8);
+            op(value);
+        }
+
+        void u4(int value) {
+            u2(value >> 16);
+            u2(value);
+        }
+
+        void load(int local) {
+            op(ILOAD);
+            op(local);
+        }
+
+        void store(int local) {
+            op(ISTORE);
+            op(local);
+        }
+
+        // pushes a constant between -32768 and 32767
+        void push(int value) {
+            op(SIPUSH);
+            u2(value);
+        }
+
+        int newLabel() {
+            labels.add(-1);
+            return labels.size() - 1;
+        }
+
+        void place(int label) {
+            labels.set(label, size);
+        }
+
+        void branch(int opcode, int label) {
+            branches.add(new int[]{size, size + 1, label});
+            op(opcode);
+            u2(0);
+        }
+
+        // jumps to the label of a key, or to a default label
+        void lookupSwitch(int[] keys, int[] keyLabels, int defaultLabel) {
+            int start = size;
+            op(LOOKUPSWITCH);
+            while (size % 4 != 0) op(0);
+            wideBranches.add(new int[]{start, size, defaultLabel});
+            u4(0);
+            u4(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                u4(keys[i]);
+                wideBranches.add(new int[]{start, size, keyLabels[i]});
+                u4(0);
+            }
+        }
+
+        // sets the offset of every branch, once every label is placed
+        void link() {
+            for (int[] branch : branches) {
+                int offset = labels.get(branch[2]) - branch[0];
+                if (offset != (short) offset) throw new IllegalStateException("Branch too far in compiled code");
+                bytes[branch[1]] = (byte) (offset >> 8);
+                bytes[branch[1] + 1] = (byte) offset;
+            }
+            for (int[] branch : wideBranches) {
+                int offset = labels.get(branch[2]) - branch[0];
+                for (int i = 0; i < 4; i++) {
+                    bytes[branch[1] + i] = (byte) (offset >> 24 - 8 * i);
+                }
+            }
+        }
+
+        // returns the offsets of the labels in increasing order, once each
+        int[] labelOffsets() {
+            return labels.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+        }
+    }
+
+    // the constant pool of a class file, each constant being added once
+    private static class ConstantPool {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final HashMap<String, Integer> indexes = new HashMap<>();
+
+        int utf8(String value) {
+            return add("U" + value, () -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            });
+        }
+
+        int classRef(String name) {
+            int nameIndex = utf8(name);
+            return add("C" + name, () -> {
+                out.writeByte(7);
+                out.writeShort(nameIndex);
+            });
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = add("N" + name + descriptor, () -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return add("M" + owner + "." + name + descriptor, () -> {
+                out.writeByte(10);
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        // writes the number of constants, plus one, and the constants
+        void write(DataOutputStream classFile) throws IOException {
+            classFile.writeShort(indexes.size() + 1);
+            classFile.write(bytes.toByteArray());
+        }
+
+        private int add(String key, Entry entry) {
+            Integer index = indexes.get(key);
+            if (index != null) return index;
+            try {
+                entry.write();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            indexes.put(key, indexes.size() + 1); // constants are numbered from 1
+            return indexes.size();
+        }
+
+        private interface Entry {
+            void write() throws IOException;
+        }
+    }
+}
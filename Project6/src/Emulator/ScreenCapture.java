@@ -0,0 +1,97 @@
+package Emulator;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the screen of an Emulator into image files, a frame at a time, without a GUI. Used in Emulator.java.
+ *
+ * The picture is kept from one frame to the next, and only the screen words which the program has written since the
+ * last frame are redrawn: the Emulator sets a bit for each of them (see Emulator.setScreenTracking()). A frame is
+ * written only if a pixel has changed, as a .png file, or as a raw .pbm bitmap (the binary P4 format), which takes no
+ * encoding at all. The files are numbered from 0, e.g. Pong-00042.png.
+ *
+ * The pixels are held as a 1-bit image whose bytes are those of a P4 bitmap: rows from top to bottom, the leftmost
+ * pixel of each byte in its high bit, 1 for black. On the Hack screen, the leftmost pixel of each word is its low bit.
+ */
+public class ScreenCapture {
+
+    public static final int WIDTH = 512;
+    public static final int HEIGHT = 256;
+
+    private static final byte[] PBM_HEADER = ("P4\n" + WIDTH + " " + HEIGHT + "\n").getBytes(StandardCharsets.US_ASCII);
+
+    private final Emulator emulator;
+    private final String baseName; // of the files, to which the frame number and extension are added
+    private final boolean png; // whether frames are written as .png files rather than .pbm files
+    private final byte[] pixels = new byte[WIDTH / 8 * HEIGHT]; // two bytes per screen word, in the same order
+    private final BufferedImage image; // drawn from pixels
+    private int frames; // frames written
+
+    // Captures the screen of an emulator into files named after baseName, in a format which is "png" or "pbm". The
+    // emulator's screen is tracked from now on.
+    public ScreenCapture(Emulator emulator, String baseName, String format) {
+        if (!format.equals("png") && !format.equals("pbm")) {
+            throw new IllegalArgumentException("Unknown frame format " + format + ", expected png or pbm");
+        }
+        this.emulator = emulator;
+        this.baseName = baseName;
+        this.png = format.equals("png");
+
+        byte[] levels = {-1, 0}; // 0 for white, 1 for black
+        IndexColorModel colors = new IndexColorModel(1, 2, levels, levels, levels);
+        image = new BufferedImage(colors, Raster.createPackedRaster(new DataBufferByte(pixels, pixels.length), WIDTH,
+                HEIGHT, 1, null), false, null);
+        emulator.setScreenTracking(true);
+    }
+
+    // Redraws the screen words written since the last call, and writes the picture as the next frame if it has changed.
+    // Returns whether a frame was written.
+    public boolean capture() throws IOException {
+        long[] dirty = emulator.dirtyScreenWords();
+        boolean changed = false;
+        for (int i = 0; i < dirty.length; i++) {
+            long bits = dirty[i];
+            dirty[i] = 0;
+            while (bits != 0) {
+                int word = i << 6 | Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                int reversed = Integer.reverse(emulator.peek(Emulator.SCREEN + word)); // leftmost pixel in bit 31
+                byte left = (byte) (reversed >>> 24);
+                byte right = (byte) (reversed >>> 16);
+                changed |= pixels[2 * word] != left || pixels[2 * word + 1] != right;
+                pixels[2 * word] = left;
+                pixels[2 * word + 1] = right;
+            }
+        }
+        if (!changed) return false;
+
+        File file = new File(String.format("%s-%05d.%s", baseName, frames++, png ? "png" : "pbm"));
+        if (png) {
+            ImageIO.write(image, "png", file);
+        } else {
+            try (OutputStream out = new FileOutputStream(file)) {
+                out.write(PBM_HEADER);
+                out.write(pixels);
+            }
+        }
+        return true;
+    }
+
+    // returns the picture of the screen as of the last call to capture()
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+}